@@ -2,6 +2,7 @@ package ca.litten.ios_obscura_server;
 
 import ca.litten.ios_obscura_server.backend.App;
 import ca.litten.ios_obscura_server.backend.AppList;
+import ca.litten.ios_obscura_server.backend.IconStore;
 import ca.litten.ios_obscura_server.frontend.Server;
 import ca.litten.ios_obscura_server.parser.AppDownloader;
 import ca.litten.ios_obscura_server.parser.ArchiveListDecoder;
@@ -13,7 +14,6 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
 import java.util.Arrays;
-import java.util.ConcurrentModificationException;
 import java.util.LinkedList;
 import java.util.Objects;
 
@@ -64,16 +64,7 @@ public class Main {
                     url += escaper.escape(frag) + "/";
                 }
                 url = url.substring(0, url.length() - 1);
-                boolean good;
-                while (true) {
-                    try {
-                        good = AppList.appUrlAlreadyExists(url);
-                        break;
-                    } catch (ConcurrentModificationException e) {
-                        // Do nothing
-                    }
-                }
-                if (good)
+                if (AppList.appUrlAlreadyExists(url))
                     continue;
                 String finalUrl = url;
                 task = new Thread(() -> {
@@ -105,6 +96,9 @@ public class Main {
     
     private static Server server;
     public static File databaseLocation;
+    public static File urlFilterLocation = null;
+    public static File journalLocation = null;
+    public static File iconStoreLocation = null;
     
     public static void main(String[] args) {
         if (Arrays.asList(args).contains("--help")) {
@@ -128,12 +122,26 @@ public class Main {
             }
             JSONObject object = new JSONObject(out.toString());
             databaseLocation = new File(object.getString("database_location"));
+            if (object.optString("database_format", "json").equalsIgnoreCase("binary"))
+                AppList.setDatabaseFormat(AppList.DatabaseFormat.BINARY);
+            if (object.optBoolean("icon_store", false))
+                iconStoreLocation = new File(databaseLocation.getPath() + ".icons");
+            if (object.optBoolean("journal", false))
+                journalLocation = new File(databaseLocation.getPath() + ".journal");
+            if (object.optBoolean("url_filter", false))
+                urlFilterLocation = new File(databaseLocation.getPath() + ".bloom");
         } catch (Exception e) {
             System.out.println("Error occurred while loading config!");
             throw new RuntimeException(e);
         }
+        if (iconStoreLocation != null)
+            IconStore.open(iconStoreLocation);
         System.out.println("Loading database...");
         AppList.loadAppDatabaseFile(databaseLocation, Arrays.asList(args).contains("--skipNoAppIcon"), Arrays.asList(args).contains("--skipDataIcon"));
+        if (journalLocation != null)
+            AppList.loadJournal(journalLocation);
+        if (urlFilterLocation != null)
+            AppList.loadUrlFilterFile(urlFilterLocation);
         if (AppList.getAppByBundleID("nil") == null) {
             System.out.println("New database? Adding broken apps entry...");
             App app = new App("Broken Apps", "nil");
@@ -141,13 +149,14 @@ public class Main {
             app.updateDeveloper("-1", "Nobody in Particular");
             AppList.addApp(app);
         }
+        AppList.saveAppDatabaseFileInBackground(databaseLocation); // Converts a database left in the other format
         System.out.println("Starting server...");
         try {
             server = new Server();
+            server.startServer();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        server.startServer();
         System.out.println("Started server.");
         ArchiveParser archiveParser = null;
         while (true) {
@@ -162,15 +171,14 @@ public class Main {
                         try {
                             Thread.sleep(1000 * 60 * 2);
                         } catch (InterruptedException e) {
-                            System.out.println("Saving database...");
-                            AppList.saveAppDatabaseFile(databaseLocation);
-                            System.out.println("Saved database!");
+                            AppList.saveAppDatabaseFileInBackground(databaseLocation);
                             break;
                         }
-                        System.out.println("Saving database...");
-                        AppList.saveAppDatabaseFile(databaseLocation);
-                        System.out.println("Saved database!");
+                        // The journal already has the new apps on disk, so a full save can wait until it grows large
+                        if (journalLocation == null || AppList.journalNeedsCompaction())
+                            AppList.saveAppDatabaseFileInBackground(databaseLocation);
                     }
+                    AppList.saveAppDatabaseFileInBackground(databaseLocation);
                     System.out.println("Finished parsing!");
                 }
                 Server.allowReload = true;
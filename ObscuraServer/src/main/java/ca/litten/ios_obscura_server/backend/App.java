@@ -5,26 +5,26 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class App {
     
     public static class VersionLink {
         private final Binary binary;
-        private final String url;
+        private final CompactUrl url;
         private final long size;
         private final String buildVersion;
         
         public VersionLink(Binary binary, String url, String buildVersion, long size) {
             this.binary = binary;
-            this.url = url;
+            this.url = CompactUrl.of(url);
             this.size = size;
-            this.buildVersion = buildVersion;
+            this.buildVersion = StringPool.intern(buildVersion);
         }
         
         public JSONObject toJSON() {
             JSONObject object = new JSONObject();
-            object.put("url", url);
+            object.put("url", url.toString());
             if (binary != null) {
                 object.put("bin", binary.toJSON());
             }
@@ -33,7 +33,19 @@ public class App {
             return object;
         }
         
+        public static VersionLink fromJSON(JSONObject object) {
+            JSONObject binary = null;
+            if (object.has("bin")) {
+                binary = object.getJSONObject("bin");
+            }
+            return new VersionLink(Binary.fromJSON(binary), object.getString("url"), object.getString("bv"), object.getLong("fs"));
+        }
+        
         public String getUrl() {
+            return url.toString();
+        }
+        
+        CompactUrl getCompactUrl() {
             return url;
         }
         
@@ -42,6 +54,10 @@ public class App {
         }
         
         public String getSize() {
+            return formatSize(size);
+        }
+        
+        public static String formatSize(long size) {
             char[] prefixes = new char[]{'k', 'M', 'G', 'T'};
             int prefixIndex = -1;
             while ((size / Math.pow(1024, prefixIndex + 1)) >= 1024) {
@@ -57,17 +73,33 @@ public class App {
         public String getBuildVersion() {
             return buildVersion;
         }
+        
+        long getSizeInBytes() {
+            return size;
+        }
+    }
+    
+    interface VersionVisitor {
+        void visit(String version, String supportedVersion, VersionLink[] links);
     }
     
     private static class Version {
+        private static final int LINK_SET_THRESHOLD = 8;
+        
         private final String version;
-        private VersionLink[] links;
+        private final VersionKey versionKey;
+        private VersionLink[] links = new VersionLink[0];
+        private HashSet<CompactUrl> urls = null; // Only built once there are enough links for scanning them to matter
         private String supportedVersion;
+        private VersionKey supportedKey;
         
         public Version(String version, VersionLink[] links, String supportedVersion) {
-            this.version = version;
-            this.links = links;
-            this.supportedVersion = supportedVersion;
+            this.version = StringPool.intern(version);
+            versionKey = VersionKey.of(version);
+            for (VersionLink link : links)
+                addUrl(link);
+            this.supportedVersion = StringPool.intern(supportedVersion);
+            supportedKey = VersionKey.of(supportedVersion);
         }
         
         @Override
@@ -75,11 +107,25 @@ public class App {
             return Objects.hash(version, Arrays.hashCode(links), supportedVersion);
         }
         
+        private boolean hasUrl(CompactUrl url) {
+            if (urls != null) return urls.contains(url);
+            for (VersionLink link : links)
+                if (link.url.equals(url)) return true;
+            return false;
+        }
+        
+        // Links are deduplicated by URL; the array is replaced rather than changed, so readers holding it never see it change
         public void addUrl(VersionLink url) {
-            if (Arrays.stream(links).noneMatch(url::equals)) {
-                List<VersionLink> urlList = Arrays.stream(links).collect(Collectors.toList());
-                urlList.add(url);
-                links = urlList.toArray(new VersionLink[]{});
+            if (hasUrl(url.url)) return;
+            VersionLink[] newLinks = Arrays.copyOf(links, links.length + 1);
+            newLinks[links.length] = url;
+            links = newLinks;
+            if (urls != null) {
+                urls.add(url.url);
+            } else if (links.length > LINK_SET_THRESHOLD) {
+                urls = new HashSet<>();
+                for (VersionLink link : links)
+                    urls.add(link.url);
             }
         }
     }
@@ -88,17 +134,50 @@ public class App {
     private boolean usesMetaName = false;
     private final String bundleID;
     private String earliestSupportedVersion = "99999999";
+    private VersionKey earliestSupportedKey = VersionKey.of(earliestSupportedVersion);
     
     private String earliestArtVersion = earliestSupportedVersion;
+    private VersionKey earliestArtKey = earliestSupportedKey;
     private String artworkURL = "";
     
     private String earliestDevVersion = earliestSupportedVersion;
+    private VersionKey earliestDevKey = earliestSupportedKey;
     private String developer = "Unknown Developer";
     
+    // Versions in sorted order with what they need frozen, rebuilt on the first read after a change
+    private static class VersionTable {
+        private final String[] versions;
+        private final VersionKey[] supportedKeys;
+        private final VersionLink[][] links;
+        private final int urlCount;
+        
+        private VersionTable(List<Version> sorted) {
+            versions = new String[sorted.size()];
+            supportedKeys = new VersionKey[versions.length];
+            links = new VersionLink[versions.length][];
+            int urls = 0;
+            for (int i = 0; i < versions.length; i++) {
+                Version version = sorted.get(i);
+                versions[i] = version.version;
+                supportedKeys[i] = version.supportedKey;
+                links[i] = version.links;
+                urls += version.links.length;
+            }
+            urlCount = urls;
+        }
+    }
+    
     private final ArrayList<Version> versions;
+    private volatile VersionTable versionTable = null;
+    private final ConcurrentHashMap<String, Version> versionsByString = new ConcurrentHashMap<>();
+    private boolean versionsSorted = true;
     
     public boolean showAppForVersion(String version) {
-        return isVersionLater(earliestSupportedVersion, version);
+        return showAppForVersion(VersionKey.of(version));
+    }
+    
+    public boolean showAppForVersion(VersionKey version) {
+        return isVersionLater(earliestSupportedKey, version);
     }
     
     public String getName() {
@@ -114,6 +193,10 @@ public class App {
         return earliestSupportedVersion;
     }
     
+    public VersionKey getEarliestSupportedKey() {
+        return earliestSupportedKey;
+    }
+    
     public String getArtworkURL() {
         return artworkURL;
     }
@@ -122,13 +205,31 @@ public class App {
         return developer;
     }
     
+    String getRawName() {
+        return name;
+    }
+    
+    String getEarliestArtVersion() {
+        return earliestArtVersion;
+    }
+    
+    String getEarliestDevVersion() {
+        return earliestDevVersion;
+    }
+    
+    boolean usesMetaName() {
+        return usesMetaName;
+    }
+    
+    synchronized void forEachVersion(VersionVisitor visitor) {
+        for (Version version : versions)
+            visitor.visit(version.version, version.supportedVersion, version.links);
+    }
+    
     public String getCompatibleVersion(String version) {
-        for (Version v : versions) {
-            if (v.version.equals(version)) {
-                return v.supportedVersion;
-            }
-        }
-        return "69.420";
+        Version v = versionsByString.get(version);
+        if (v == null) return "69.420";
+        return v.supportedVersion;
     }
     
     public App(String name, String bundleID) {
@@ -137,123 +238,177 @@ public class App {
         versions = new ArrayList<>();
     }
     
-    public void addAppVersionNoSort(String version, VersionLink[] urls, String supportedVersion) {
-        if (isVersionLater(supportedVersion, earliestSupportedVersion))
+    public synchronized void addAppVersionNoSort(String version, VersionLink[] urls, String supportedVersion) {
+        supportedVersion = StringPool.intern(supportedVersion);
+        VersionKey supportedKey = VersionKey.of(supportedVersion);
+        if (!supportedVersion.equals(earliestSupportedVersion) && isVersionLater(supportedKey, earliestSupportedKey)) {
             earliestSupportedVersion = supportedVersion;
-        for (Version otherVersion : versions) {
-            if (otherVersion.version.equals(version)) {
-                if (isVersionLater(supportedVersion, otherVersion.supportedVersion))
-                    otherVersion.supportedVersion = supportedVersion;
-                for (VersionLink url : urls)
-                    otherVersion.addUrl(url);
-                return;
+            earliestSupportedKey = supportedKey;
+            AppList.earliestVersionChanged(this);
+        }
+        Version otherVersion = versionsByString.get(version);
+        if (otherVersion != null) {
+            if (isVersionLater(supportedKey, otherVersion.supportedKey)) {
+                otherVersion.supportedVersion = supportedVersion;
+                otherVersion.supportedKey = supportedKey;
             }
+            for (VersionLink url : urls)
+                otherVersion.addUrl(url);
+            versionTable = null;
+            AppList.versionAdded(this, version, urls, supportedVersion);
+            return;
         }
-        versions.add(new Version(version, urls, supportedVersion));
+        Version newVersion = new Version(version, urls, supportedVersion);
+        if (!versions.isEmpty() && compareVersions(versions.get(versions.size() - 1), newVersion) > 0)
+            versionsSorted = false;
+        versions.add(newVersion);
+        versionsByString.put(newVersion.version, newVersion);
+        versionTable = null;
+        AppList.versionAdded(this, version, urls, supportedVersion);
     }
     
-    public void updateArtwork(String version, String url) {
+    public synchronized void updateArtwork(String version, String url) {
         if (url == null || url.isEmpty()) return;
+        url = IconStore.intern(url);
+        VersionKey key = VersionKey.of(version);
         if (artworkURL.isEmpty()) {
-            earliestArtVersion = version;
+            earliestArtVersion = StringPool.intern(version);
+            earliestArtKey = key;
             artworkURL = url;
+            AppList.artworkChanged(this, version, url);
             return;
         }
-        if (url.startsWith("data:")) {
-            if (!artworkURL.startsWith("data:")) return;
-        } else if (artworkURL.startsWith("data:")) {
-            earliestArtVersion = version;
+        if (IconStore.isGenerated(url)) {
+            if (!IconStore.isGenerated(artworkURL)) return;
+        } else if (IconStore.isGenerated(artworkURL)) {
+            earliestArtVersion = StringPool.intern(version);
+            earliestArtKey = key;
             artworkURL = url;
+            AppList.artworkChanged(this, version, url);
             return;
         }
-        if (isVersionLater(version, earliestArtVersion)) {
-            earliestArtVersion = version;
+        if (isVersionLater(key, earliestArtKey)) {
+            earliestArtVersion = StringPool.intern(version);
+            earliestArtKey = key;
             artworkURL = url;
+            AppList.artworkChanged(this, version, url);
         }
     }
     
-    public void updateDeveloper(String version, String dev) {
+    public synchronized void updateDeveloper(String version, String dev) {
         if (dev == null || dev.isEmpty()) return;
-        if (isVersionLater(version, earliestDevVersion)) {
-            earliestDevVersion = version;
-            developer = dev;
+        VersionKey key = VersionKey.of(version);
+        if (isVersionLater(key, earliestDevKey)) {
+            earliestDevVersion = StringPool.intern(version);
+            earliestDevKey = key;
+            developer = StringPool.intern(dev);
+            AppList.developerChanged(this, version, dev);
         }
     }
     
-    public void sortVersions() {
-        versions.sort((o1, o2) -> {
-            if (o1 == null) return -1;
-            if (o2 == null) return 1;
-            if (o1.version.equals(o2.version)) return o1.links[0].url.compareTo(o2.links[0].url);
-            return (isVersionLater(o1.version, o2.version)) ? -1 : 1;
-        });
+    // Version strings are unique per app, so this is a total order
+    private static int compareVersions(Version o1, Version o2) {
+        int comp = o1.versionKey.compareTo(o2.versionKey);
+        if (comp != 0) return comp;
+        return o1.version.compareTo(o2.version);
     }
     
-    public void addAppVersion(String version, VersionLink[] urls, String supportedVersion) {
+    public synchronized void sortVersions() {
+        if (versionsSorted) return;
+        versions.sort(App::compareVersions);
+        versionsSorted = true;
+    }
+    
+    public synchronized void addAppVersion(String version, VersionLink[] urls, String supportedVersion) {
         addAppVersionNoSort(version, urls, supportedVersion);
         sortVersions();
     }
     
     public static boolean isVersionLater(String lateVersion, String checkVersion) {
-        String[] support = lateVersion.split("\\.");
-        String[] check = checkVersion.split("\\.");
-        int checkLen = Math.max(check.length, support.length);
-        int checkVer;
-        int supportVer;
-        for (int i = 0; i < checkLen; i++) {
-            try {
-                try {
-                    supportVer = Integer.parseInt(support[i]);
-                } catch (IndexOutOfBoundsException e) {
-                    supportVer = 0;
-                }
-                try {
-                    checkVer = Integer.parseInt(check[i]);
-                } catch (IndexOutOfBoundsException e) {
-                    checkVer = 0;
-                }
-                if (supportVer > checkVer) return false;
-                if (supportVer < checkVer) return true;
-            } catch (NumberFormatException e) {
-                try {
-                    int comp = support[i].compareTo(check[i]);
-                    if (comp < 0) return true;
-                    if (comp > 0) return false;
-                } catch (IndexOutOfBoundsException f) {
-                    return support.length < check.length;
-                }
-            }
-        }
-        return true; // Earliest supported version
+        return isVersionLater(VersionKey.of(lateVersion), VersionKey.of(checkVersion));
+    }
+    
+    public static boolean isVersionLater(VersionKey lateVersion, VersionKey checkVersion) {
+        return lateVersion.compareTo(checkVersion) <= 0; // Earliest supported version
     }
     
-    public void usedMetaName() {
+    public synchronized void usedMetaName() {
         usesMetaName = true;
     }
     
-    public void updateName(String name) {
+    public synchronized void updateName(String name) {
         if (name.isEmpty()) return;
         if (this.name.isEmpty()) {
             this.name = name;
+            AppList.nameChanged(this);
             return;
         }
         if (usesMetaName) return;
         usesMetaName = true;
         this.name = name;
+        AppList.nameChanged(this);
     }
     
     public String[] getSupportedAppVersions(String version) {
-        List<String> halfway = new ArrayList<>();
-        for (Version appVer : versions) {
-            if (isVersionLater(appVer.supportedVersion, version)) {
-                halfway.add(appVer.version);
+        return getSupportedAppVersions(VersionKey.of(version));
+    }
+    
+    private VersionTable versionTable() {
+        VersionTable table = versionTable;
+        if (table != null) return table;
+        synchronized (this) {
+            if (versionTable == null) {
+                List<Version> sorted = versions;
+                if (!versionsSorted) {
+                    sorted = new ArrayList<>(versions);
+                    sorted.sort(App::compareVersions);
+                }
+                versionTable = new VersionTable(sorted);
             }
+            return versionTable;
         }
-        halfway.sort((o1, o2) -> (isVersionLater(o1, o2)) ? -1 : 1);
-        return halfway.toArray(new String[]{});
     }
     
-    public JSONObject getAppJSON() {
+    // Like forEachVersion, but in sorted order and without taking the app's lock
+    void forEachSortedVersion(VersionVisitor visitor) {
+        VersionTable table = versionTable();
+        for (int i = 0; i < table.versions.length; i++)
+            visitor.visit(table.versions[i], table.supportedKeys[i].getVersion(), table.links[i]);
+    }
+    
+    interface VersionTableVisitor {
+        void visit(VersionKey supportedKey, int urlCount);
+    }
+    
+    void visitVersionTable(VersionTableVisitor visitor) {
+        VersionTable table = versionTable();
+        for (int i = 0; i < table.versions.length; i++)
+            visitor.visit(table.supportedKeys[i], table.links[i].length);
+    }
+    
+    public String[] getSupportedAppVersions(VersionKey version) {
+        VersionTable table = versionTable();
+        String[] supported = new String[countSupportedAppVersions(table, version)];
+        int count = 0;
+        for (int i = 0; i < table.versions.length; i++)
+            if (isVersionLater(table.supportedKeys[i], version))
+                supported[count++] = table.versions[i];
+        return supported;
+    }
+    
+    private static int countSupportedAppVersions(VersionTable table, VersionKey version) {
+        int count = 0;
+        for (VersionKey supportedKey : table.supportedKeys)
+            if (isVersionLater(supportedKey, version))
+                count++;
+        return count;
+    }
+    
+    public int countSupportedAppVersions(VersionKey version) {
+        return countSupportedAppVersions(versionTable(), version);
+    }
+    
+    public synchronized JSONObject getAppJSON() {
         JSONObject appJSON = new JSONObject();
         appJSON.put("name", name);
         appJSON.put("bundle", bundleID);
@@ -278,39 +433,83 @@ public class App {
         return appJSON;
     }
     
-    public String[] getUrlsForVersion(String version) {
-        for (Version v : versions) {
-            if (v.version.equals(version)) {
-                return (String[]) Arrays.stream(v.links).map(link -> link.url).toArray();
+    public static App fromJSON(JSONObject appJSON) {
+        App app = new App(appJSON.getString("name"), appJSON.getString("bundle"));
+        for (Object versionObject : appJSON.getJSONArray("versions")) {
+            JSONObject versionJSON = (JSONObject) versionObject;
+            JSONArray array = versionJSON.getJSONArray("urls");
+            VersionLink[] versionLinks = new VersionLink[array.length()];
+            for (int i = 0; i < versionLinks.length; i++) {
+                versionLinks[i] = VersionLink.fromJSON(array.getJSONObject(i));
             }
+            app.addAppVersionNoSort(versionJSON.getString("ver"), versionLinks, versionJSON.getString("support"));
+        }
+        app.updateArtwork(appJSON.getString("artver"), appJSON.getString("art"));
+        app.updateDeveloper(appJSON.getString("devVer"), appJSON.getString("dev"));
+        if (appJSON.getBoolean("nN")) {
+            app.usedMetaName();
         }
-        return new String[]{};
+        app.sortVersions();
+        return app;
+    }
+    
+    public String[] getUrlsForVersion(String version) {
+        Version v = versionsByString.get(version);
+        if (v == null) return new String[]{};
+        return Arrays.stream(v.links).map(VersionLink::getUrl).toArray(String[]::new);
     }
     
     public VersionLink[] getLinksForVersion(String version) {
-        for (Version v : versions) {
-            if (v.version.equals(version)) {
-                return v.links;
-            }
-        }
-        return new VersionLink[]{};
+        Version v = versionsByString.get(version);
+        if (v == null) return new VersionLink[]{};
+        return v.links;
     }
     
     public List<String> getAllUrls() {
-        LinkedList<String> list = new LinkedList<>();
-        for (Version v : versions) {
-            list.addAll(Arrays.stream(v.links).map(link -> link.url).collect(Collectors.toList()));
-        }
+        VersionTable table = versionTable();
+        List<String> list = new ArrayList<>(table.urlCount);
+        for (VersionLink[] links : table.links)
+            for (VersionLink link : links)
+                list.add(link.getUrl());
         return list;
     }
-
+    
+    int getVersionCount() {
+        return versionTable().versions.length;
+    }
+    
+    public int countUrls() {
+        return versionTable().urlCount;
+    }
+    
+    synchronized List<CompactUrl> getCompactUrls() {
+        List<CompactUrl> list = new ArrayList<>();
+        for (Version v : versions)
+            for (VersionLink link : v.links)
+                list.add(link.getCompactUrl());
+        return list;
+    }
+    
     public List<String> getAllUrlsForVersion(String version) {
-        LinkedList<String> list = new LinkedList<>();
-        for (Version v : versions) {
-            if (isVersionLater(v.supportedVersion, version)) {
-                list.addAll(Arrays.stream(v.links).map(link -> link.url).collect(Collectors.toList()));
-            }
-        }
+        return getAllUrlsForVersion(VersionKey.of(version));
+    }
+    
+    public List<String> getAllUrlsForVersion(VersionKey version) {
+        VersionTable table = versionTable();
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < table.versions.length; i++)
+            if (isVersionLater(table.supportedKeys[i], version))
+                for (VersionLink link : table.links[i])
+                    list.add(link.getUrl());
         return list;
     }
+    
+    public int countUrlsForVersion(VersionKey version) {
+        VersionTable table = versionTable();
+        int count = 0;
+        for (int i = 0; i < table.versions.length; i++)
+            if (isVersionLater(table.supportedKeys[i], version))
+                count += table.links[i].length;
+        return count;
+    }
 }
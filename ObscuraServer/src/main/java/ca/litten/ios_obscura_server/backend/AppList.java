@@ -1,112 +1,471 @@
 package ca.litten.ios_obscura_server.backend;
 
-import ca.litten.ios_obscura_server.parser.Binary;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 public class AppList {
-    private static final ArrayList<App> apps = new ArrayList<>();
-
+    public enum DatabaseFormat {
+        JSON,
+        BINARY
+    }
+    
+    private static final AtomicLong generations = new AtomicLong();
+    private static final Object writeLock = new Object();
+    private static volatile Catalog catalog = Catalog.empty(generations.getAndIncrement());
+    private static BloomFilter<CharSequence> urlFilter = null;
+    private static File urlFilterFile = null;
+    private static volatile long savedGeneration = -1;
+    private static DatabaseFormat databaseFormat = DatabaseFormat.JSON;
+    private static volatile ChangeJournal journal = null;
+    private static final CatalogEventBus events = new CatalogEventBus();
+    private static final CatalogStats stats = new CatalogStats();
+    private static final long JOURNAL_COMPACTION_SIZE = 32L << 20;
+    private static final ExecutorService saver = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Database saver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    static {
+        events.addListener(stats);
+    }
+    
+    public static void setDatabaseFormat(DatabaseFormat format) {
+        databaseFormat = format;
+    }
+    
+    public static DatabaseFormat getDatabaseFormat() {
+        return databaseFormat;
+    }
+    
+    public static void addCatalogListener(CatalogListener listener) {
+        events.addListener(listener);
+    }
+    
+    public static void removeCatalogListener(CatalogListener listener) {
+        events.removeListener(listener);
+    }
+    
+    static void flushCatalogEvents() throws InterruptedException {
+        events.flush();
+    }
+    
+    public static CatalogStats getStats() {
+        return stats;
+    }
+    
+    public static Catalog getCatalog() {
+        return catalog;
+    }
+    
     public static void loadAppDatabaseFile(File file) {
         loadAppDatabaseFile(file, false, false);
     }
     
-    public static void loadAppDatabaseFile(File file, boolean skipEmptyIcons, boolean skipDataIcons) {
-        try {
-            FileReader reader = new FileReader(file);
-            StringBuilder out = new StringBuilder();
-            char[] buf = new char[4096];
-            int read;
-            while (reader.ready()) {
-                read = reader.read(buf);
-                for (int i = 0; i < read; i++)
-                    out.append(buf[i]);
-            }
-            JSONArray appArray = new JSONArray(out.toString());
-            apps.clear();
-            for (Object appObject : appArray) {
-                JSONObject appJSON = (JSONObject) appObject;
-                if (skipEmptyIcons && appJSON.getString("art").isEmpty()) continue;
-                if (skipDataIcons && appJSON.getString("art").startsWith("data")) continue;
-                App app = new App(appJSON.getString("name"), appJSON.getString("bundle"));
-                for (Object versionObject : appJSON.getJSONArray("versions")) {
-                    JSONObject versionJSON = (JSONObject) versionObject;
-                    JSONArray array = versionJSON.getJSONArray("urls");
-                    LinkedList<App.VersionLink> versionLinks = new LinkedList<>();
-                    for (Object objectStd : array) {
-                        JSONObject object = (JSONObject) objectStd;
-                        JSONObject binary = null;
-                        if (object.has("bin")) {
-                            binary = object.getJSONObject("bin");
-                        }
-                        versionLinks.add(new App.VersionLink(Binary.fromJSON(binary), object.getString("url"), object.getString("bv"), object.getLong("fs")));
-                    }
-                    app.addAppVersionNoSort(versionJSON.getString("ver"),
-                            versionLinks.toArray(new App.VersionLink[]{}),
-                            versionJSON.getString("support"));
+    private static final int LOAD_BATCH = 4096;
+    
+    // Hands out the characters of the database; Reader.read() per character costs a lock each time
+    private static class CharSource {
+        private final Reader reader;
+        private final char[] buffer = new char[1 << 16];
+        private int position = 0;
+        private int length = 0;
+        
+        CharSource(Reader reader) {
+            this.reader = reader;
+        }
+        
+        // I/O errors come out as JSONExceptions, the same as they did from JSONTokener
+        int read() {
+            if (position == length) {
+                try {
+                    length = reader.read(buffer);
+                } catch (IOException e) {
+                    throw new JSONException(e);
                 }
-                app.updateArtwork(appJSON.getString("artver"), appJSON.getString("art"));
-                app.updateDeveloper(appJSON.getString("devVer"), appJSON.getString("dev"));
-                if (appJSON.getBoolean("nN")) {
-                    app.usedMetaName();
+                position = 0;
+                if (length <= 0) {
+                    length = 0;
+                    return -1;
                 }
-                app.sortVersions();
+            }
+            return buffer[position++];
+        }
+        
+        void back() {
+            position--;
+        }
+        
+        int nextClean() {
+            int c;
+            do {
+                c = read();
+            } while (c != -1 && Character.isWhitespace(c));
+            return c;
+        }
+        
+        // The text of the next JSON object, found by matching brackets outside of strings
+        String nextRecord() {
+            if (nextClean() != '{') throw new JSONException("Expected an app record");
+            StringBuilder record = new StringBuilder(1024).append('{');
+            int depth = 1;
+            boolean inString = false;
+            boolean escaped = false;
+            while (depth > 0) {
+                int c = read();
+                if (c == -1) throw new JSONException("Unterminated app record");
+                record.append((char) c);
+                if (inString) {
+                    if (escaped) escaped = false;
+                    else if (c == '\\') escaped = true;
+                    else if (c == '"') inString = false;
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+            return record.toString();
+        }
+    }
+    
+    private static void buildApps(List<String> records, boolean skipEmptyIcons, boolean skipDataIcons, Consumer<App> consumer) {
+        App[] apps = new App[records.size()];
+        IntStream.range(0, apps.length).parallel().forEach(i -> {
+            JSONObject appJSON = new JSONObject(records.get(i));
+            if (!(skipEmptyIcons && appJSON.getString("art").isEmpty()) &&
+                    !(skipDataIcons && IconStore.isGenerated(appJSON.getString("art"))))
+                apps[i] = App.fromJSON(appJSON);
+        });
+        for (App app : apps)
+            if (app != null) consumer.accept(app);
+    }
+    
+    // Records are split off the array on this thread, then parsed and built into apps in parallel a batch at a time.
+    // Apps still reach the consumer in file order, so what gets loaded doesn't depend on the number of cores.
+    static void readAppDatabase(Reader reader, boolean skipEmptyIcons, boolean skipDataIcons, Consumer<App> consumer) {
+        CharSource source = new CharSource(reader);
+        if (source.nextClean() != '[') throw new JSONException("A JSONArray text must start with '['");
+        ArrayList<String> batch = new ArrayList<>(LOAD_BATCH);
+        int next = source.nextClean();
+        if (next == ']') return;
+        if (next == -1) throw new JSONException("Expected an app record");
+        source.back();
+        while (true) {
+            batch.add(source.nextRecord());
+            if (batch.size() == LOAD_BATCH) {
+                buildApps(batch, skipEmptyIcons, skipDataIcons, consumer);
+                batch.clear();
+            }
+            next = source.nextClean();
+            if (next == ']') break;
+            if (next != ',') throw new JSONException("Expected a ',' or ']'");
+        }
+        buildApps(batch, skipEmptyIcons, skipDataIcons, consumer);
+    }
+    
+    // Either format loads regardless of the configured one; a database in the other format is rewritten on the next save
+    public static void loadAppDatabaseFile(File file, boolean skipEmptyIcons, boolean skipDataIcons) {
+        ArrayList<App> apps = new ArrayList<>();
+        HashMap<String, App> appsByBundleID = new HashMap<>();
+        Set<CompactUrl> knownUrls = ConcurrentHashMap.newKeySet();
+        SearchIndex searchIndex = new SearchIndex();
+        VersionIndex versionIndex = new VersionIndex();
+        Consumer<App> consumer = app -> {
+            if (appsByBundleID.putIfAbsent(app.getBundleID(), app) == null)
                 apps.add(app);
+        };
+        DatabaseFormat format;
+        long interned = IconStore.internedCount();
+        try {
+            if (BinaryCatalogFile.isBinaryCatalog(file)) {
+                format = DatabaseFormat.BINARY;
+                BinaryCatalogFile.read(file, skipEmptyIcons, skipDataIcons, consumer);
+            } else {
+                format = DatabaseFormat.JSON;
+                try (Reader reader = new BufferedReader(new FileReader(file), 1 << 16)) {
+                    readAppDatabase(reader, skipEmptyIcons, skipDataIcons, consumer);
+                }
             }
         } catch (FileNotFoundException e) {
             System.err.println("File not found! Not importing anything.");
+            return;
         } catch (Exception e) {
             System.err.println(e);
+            return;
+        }
+        apps.parallelStream().forEach(app -> knownUrls.addAll(app.getCompactUrls()));
+        searchIndex.addAll(apps);
+        versionIndex.rebuild(apps);
+        synchronized (writeLock) {
+            catalog = new Catalog(generations.getAndIncrement(), apps, knownUrls, searchIndex, versionIndex);
+            // Data URI icons that just moved into the icon store only leave the database once it's saved again
+            boolean migrated = IconStore.internedCount() != interned;
+            savedGeneration = (format == databaseFormat && !migrated) ? catalog.getGeneration() : -1;
+            events.publish(new CatalogEvent(CatalogEvent.Type.CATALOG_RELOADED, null, catalog.getGeneration()));
         }
     }
     
-    public static void saveAppDatabaseFile(File file) {
-        JSONArray appArray = new JSONArray();
-        for (App app : apps) {
-            appArray.put(app.getAppJSON());
-        }
+    // Writes next to the database and renames over it, so a crash mid-save never leaves a truncated database behind
+    // With a journal this is also compaction: the journal is rotated first, so the saved base contains everything in the old segment
+    public static boolean saveAppDatabaseFile(File file) {
+        if (catalog.getGeneration() == savedGeneration) return false;
+        File absolute = file.getAbsoluteFile();
+        File temp = new File(absolute.getParentFile(), absolute.getName() + ".tmp");
         try {
-            FileWriter writer = new FileWriter(file, false);
-            writer.write(appArray.toString());
-            writer.close();
+            ChangeJournal currentJournal = journal;
+            File journalSegment = (currentJournal == null) ? null : currentJournal.rotate();
+            Catalog snapshot = catalog;
+            if (databaseFormat == DatabaseFormat.BINARY) {
+                BinaryCatalogFile.write(temp, snapshot.getApps());
+            } else {
+                try (Writer writer = new BufferedWriter(new FileWriter(temp, false), 1 << 16)) {
+                    writer.write('[');
+                    boolean first = true;
+                    for (App app : snapshot.getApps()) {
+                        if (!first) writer.write(',');
+                        first = false;
+                        app.getAppJSON().write(writer);
+                    }
+                    writer.write(']');
+                }
+            }
+            // On disk before the rename, and the rename on disk before the journal segment it replaces goes
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            try {
+                Files.move(temp.toPath(), absolute.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), absolute.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(absolute.getParentFile());
+            savedGeneration = snapshot.getGeneration();
+            if (journalSegment != null)
+                Files.deleteIfExists(journalSegment.toPath());
+            if (urlFilterFile != null)
+                saveUrlFilterFile(urlFilterFile);
+            return true;
         } catch (IOException e) {
             System.err.println("Failed to write to file!");
+            return false;
         }
     }
     
+    // Not every platform lets a directory be opened to sync it, in which case the rename is as durable as it gets
+    private static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Nothing more can be done here
+        }
+    }
+    
+    public static Future<Boolean> saveAppDatabaseFileInBackground(File file) {
+        return saver.submit(() -> {
+            System.out.println("Saving database...");
+            boolean saved = saveAppDatabaseFile(file);
+            System.out.println(saved ? "Saved database!" : "Database unchanged, skipped saving.");
+            return saved;
+        });
+    }
+    
     public static List<App> listAppsThatSupportVersion(String version) {
-        return apps.parallelStream().filter(app -> app.showAppForVersion(version)).collect(Collectors.toList());
+        return catalog.listAppsThatSupportVersion(version);
+    }
+    
+    public static int countAppsThatSupportVersion(String version) {
+        return catalog.countAppsThatSupportVersion(version);
     }
     
     public static App getAppByBundleID(String bundleID) {
-        List<App> theApp = apps.parallelStream().filter(app -> (app.getBundleID().equals(bundleID))).collect(Collectors.toList());
-        if (theApp.isEmpty()) return null;
-        return theApp.get(0);
+        return catalog.getAppByBundleID(bundleID);
     }
     
+    // Holding the app's lock keeps it from changing between being journaled and being listed
     public static void addApp(App app) {
-        if (getAppByBundleID(app.getBundleID()) == null) {
-            apps.add(app);
+        synchronized (app) {
+            synchronized (writeLock) {
+                Catalog current = catalog;
+                if (current.getAppByBundleID(app.getBundleID()) != null) return;
+                current.knownUrls.addAll(app.getCompactUrls());
+                current.searchIndex.add(app);
+                current.versionIndex.place(app);
+                journal(new JSONObject().put("op", "app").put("app", app.getAppJSON()));
+                catalog = current.withApp(generations.getAndIncrement(), app);
+                events.publish(new CatalogEvent(CatalogEvent.Type.APP_ADDED, app.getBundleID(), catalog.getGeneration()));
+            }
+        }
+    }
+    
+    // Apps are updated in place, so any change to a listed app moves the catalog to a new generation
+    private static void publishChange(CatalogEvent.Type type, App app) {
+        synchronized (writeLock) {
+            catalog = catalog.withGeneration(generations.getAndIncrement());
+            events.publish(new CatalogEvent(type, app.getBundleID(), catalog.getGeneration()));
+        }
+    }
+    
+    // Only ever called just before versionAdded, which publishes the change
+    static void earliestVersionChanged(App app) {
+        Catalog current = catalog;
+        if (!current.contains(app)) return;
+        current.versionIndex.place(app);
+    }
+    
+    static void nameChanged(App app) {
+        Catalog current = catalog;
+        if (!current.contains(app)) return;
+        current.searchIndex.update(app);
+        journal(new JSONObject().put("op", "name").put("bundle", app.getBundleID()).put("name", app.getRawName()));
+        publishChange(CatalogEvent.Type.NAME_CHANGED, app);
+    }
+    
+    static void versionAdded(App app, String version, App.VersionLink[] links, String supportedVersion) {
+        Catalog current = catalog;
+        if (!current.contains(app)) return;
+        JSONArray urls = new JSONArray();
+        for (App.VersionLink link : links) {
+            current.knownUrls.add(link.getCompactUrl());
+            urls.put(link.toJSON());
         }
+        journal(new JSONObject().put("op", "version").put("bundle", app.getBundleID()).put("ver", version)
+                .put("support", supportedVersion).put("urls", urls));
+        publishChange(CatalogEvent.Type.VERSION_ADDED, app);
+    }
+    
+    static void artworkChanged(App app, String version, String url) {
+        if (!catalog.contains(app)) return;
+        journal(new JSONObject().put("op", "art").put("bundle", app.getBundleID()).put("ver", version).put("art", url));
+        publishChange(CatalogEvent.Type.ARTWORK_CHANGED, app);
+    }
+    
+    static void developerChanged(App app, String version, String developer) {
+        if (!catalog.contains(app)) return;
+        journal(new JSONObject().put("op", "dev").put("bundle", app.getBundleID()).put("ver", version).put("dev", developer));
+        publishChange(CatalogEvent.Type.DEVELOPER_CHANGED, app);
+    }
+    
+    private static void journal(JSONObject event) {
+        ChangeJournal currentJournal = journal;
+        if (currentJournal != null)
+            currentJournal.append(event);
+    }
+    
+    // Replaying has to tolerate events the base database already contains, since compaction can save changes made after rotating
+    private static void applyJournalEvent(JSONObject event) {
+        String op = event.getString("op");
+        if (op.equals("app")) {
+            App app = App.fromJSON(event.getJSONObject("app"));
+            if (getAppByBundleID(app.getBundleID()) == null)
+                addApp(app);
+            return;
+        }
+        App app = getAppByBundleID(event.getString("bundle"));
+        if (app == null) return;
+        switch (op) {
+            case "version": {
+                List<App.VersionLink> links = new ArrayList<>();
+                for (Object link : event.getJSONArray("urls")) {
+                    App.VersionLink versionLink = App.VersionLink.fromJSON((JSONObject) link);
+                    if (!catalog.appUrlAlreadyExists(versionLink.getUrl()))
+                        links.add(versionLink);
+                }
+                if (!links.isEmpty())
+                    app.addAppVersion(event.getString("ver"), links.toArray(new App.VersionLink[0]), event.getString("support"));
+                break;
+            }
+            case "art":
+                app.updateArtwork(event.getString("ver"), event.getString("art"));
+                break;
+            case "dev":
+                app.updateDeveloper(event.getString("ver"), event.getString("dev"));
+                break;
+            case "name":
+                app.updateName(event.getString("name"));
+                break;
+        }
+    }
+    
+    // Call after loading the base database; replays what the journal holds on top of it, then keeps journaling to it
+    public static void loadJournal(File file) {
+        try {
+            closeJournal();
+            ChangeJournal.replay(file, AppList::applyJournalEvent);
+            journal = new ChangeJournal(file);
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+    
+    static void closeJournal() throws IOException {
+        ChangeJournal previous = journal;
+        journal = null;
+        if (previous != null)
+            previous.close();
+    }
+    
+    public static boolean journalNeedsCompaction() {
+        ChangeJournal currentJournal = journal;
+        return currentJournal != null && currentJournal.size() >= JOURNAL_COMPACTION_SIZE;
     }
     
     public static List<App> searchApps(String query, String version) {
-        return apps.parallelStream()
-                .filter(app -> (app.showAppForVersion(version) && app.getName().toLowerCase().contains(query.toLowerCase())))
-                .sorted(Comparator.comparingInt(o -> o.getName().length())).collect(Collectors.toList());
+        return catalog.searchApps(query, version);
     }
     
     public static List<App> searchApps(String query) {
-        return apps.parallelStream().filter(app -> app.getName().toLowerCase().contains(query.toLowerCase()))
-                .sorted(Comparator.comparingInt(o -> o.getName().length())).collect(Collectors.toList());
+        return catalog.searchApps(query);
     }
     
     public static boolean appUrlAlreadyExists(String url) {
-        return !apps.parallelStream().filter(app -> !app.getAllUrls().parallelStream().filter(string -> string.equals(url))
-                        .collect(Collectors.toList()).isEmpty()).collect(Collectors.toList()).isEmpty();
+        if (catalog.appUrlAlreadyExists(url)) return true;
+        BloomFilter<CharSequence> filter = urlFilter;
+        return filter != null && filter.mightContain(url);
+    }
+    
+    public static void loadUrlFilterFile(File file) {
+        urlFilterFile = file;
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            urlFilter = BloomFilter.readFrom(stream, Funnels.stringFunnel(StandardCharsets.UTF_8));
+        } catch (FileNotFoundException e) {
+            System.err.println("URL filter not found! Relying on the database alone.");
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+    
+    public static void saveUrlFilterFile(File file) {
+        Set<CompactUrl> knownUrls = catalog.knownUrls;
+        BloomFilter<CharSequence> filter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
+                Math.max(knownUrls.size() * 2, 1024), 0.000001);
+        for (CompactUrl url : knownUrls)
+            filter.put(url.toString());
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(file, false))) {
+            filter.writeTo(stream);
+        } catch (IOException e) {
+            System.err.println("Failed to write URL filter!");
+        }
     }
 }
@@ -0,0 +1,363 @@
+package ca.litten.ios_obscura_server.backend;
+
+import ca.litten.ios_obscura_server.parser.Binary;
+import ca.litten.ios_obscura_server.parser.CPUarch;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+// The database as one memory-mapped file, so startup doesn't have to tokenize hundreds of megabytes of JSON.
+//
+// Layout (big-endian):
+//   header      magic, format version, app/string/arch counts, section offsets, CRC32 of everything after the header
+//   arches      string ids of the CPUarch names, so the masks below survive the enum being reordered
+//   strings     offsets into the data that follows, then every distinct string once as UTF-8
+//   records     one length-prefixed record per app; every string is an id into the table
+//   index       bundle ID string id and record offset per app, sorted by the bundle ID's UTF-8 bytes
+final class BinaryCatalogFile {
+    static final int MAGIC = 0x4F425343; // "OBSC"
+    static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int INDEX_ENTRY_SIZE = 12;
+    
+    private static class Header {
+        int appCount;
+        int stringCount;
+        int archCount;
+        long stringsOffset;
+        long recordsOffset;
+        long indexOffset;
+        long checksum;
+    }
+    
+    private static class VersionRecord {
+        final int version;
+        final int supportedVersion;
+        final App.VersionLink[] links;
+        
+        VersionRecord(int version, int supportedVersion, App.VersionLink[] links) {
+            this.version = version;
+            this.supportedVersion = supportedVersion;
+            this.links = links;
+        }
+    }
+    
+    private static class AppRecord {
+        int name, bundleID, art, artVersion, developer, devVersion;
+        boolean usesMetaName;
+        final ArrayList<VersionRecord> versions = new ArrayList<>();
+    }
+    
+    private static class StringTable {
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        private final ArrayList<String> strings = new ArrayList<>();
+        
+        int id(String string) {
+            Integer id = ids.get(string);
+            if (id != null) return id;
+            ids.put(string, strings.size());
+            strings.add(string);
+            return strings.size() - 1;
+        }
+    }
+    
+    private BinaryCatalogFile() {}
+    
+    static boolean isBinaryCatalog(File file) {
+        try (DataInputStream stream = new DataInputStream(new FileInputStream(file))) {
+            return stream.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    // Everything an app needs is copied under the app's lock first, so a crawler updating it mid-save can't leave
+    // a record pointing at a string that never made it into the table
+    private static AppRecord capture(App app, StringTable table) {
+        AppRecord record = new AppRecord();
+        synchronized (app) {
+            record.name = table.id(app.getRawName());
+            record.bundleID = table.id(app.getBundleID());
+            record.art = table.id(app.getArtworkURL());
+            record.artVersion = table.id(app.getEarliestArtVersion());
+            record.developer = table.id(app.getDeveloper());
+            record.devVersion = table.id(app.getEarliestDevVersion());
+            record.usesMetaName = app.usesMetaName();
+            app.forEachVersion((version, supportedVersion, links) -> {
+                for (App.VersionLink link : links) {
+                    table.id(link.getUrl());
+                    table.id(link.getBuildVersion());
+                }
+                record.versions.add(new VersionRecord(table.id(version), table.id(supportedVersion), links));
+            });
+        }
+        return record;
+    }
+    
+    private static int compareUtf8(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int comp = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (comp != 0) return comp;
+        }
+        return Integer.compare(a.length, b.length);
+    }
+    
+    static void write(File file, List<App> apps) throws IOException {
+        StringTable table = new StringTable();
+        CPUarch[] arches = CPUarch.values();
+        int[] archIds = new int[arches.length];
+        for (int i = 0; i < arches.length; i++)
+            archIds[i] = table.id(arches[i].name());
+        ArrayList<AppRecord> records = new ArrayList<>(apps.size());
+        for (App app : apps)
+            records.add(capture(app, table));
+        byte[][] encoded = new byte[table.strings.size()][];
+        for (int i = 0; i < encoded.length; i++)
+            encoded[i] = table.strings.get(i).getBytes(StandardCharsets.UTF_8);
+        Header header = new Header();
+        header.appCount = records.size();
+        header.stringCount = encoded.length;
+        header.archCount = arches.length;
+        long[] recordOffsets = new long[records.size()];
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileStream = new FileOutputStream(file, false)) {
+            fileStream.write(new byte[HEADER_SIZE]);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileStream, crc), 1 << 16));
+            long position = HEADER_SIZE;
+            for (int id : archIds)
+                out.writeInt(id);
+            position += 4L * archIds.length;
+            header.stringsOffset = position;
+            int dataOffset = 0;
+            for (byte[] bytes : encoded) {
+                out.writeInt(dataOffset);
+                dataOffset += bytes.length;
+            }
+            out.writeInt(dataOffset);
+            for (byte[] bytes : encoded)
+                out.write(bytes);
+            position += 4L * (encoded.length + 1) + dataOffset;
+            header.recordsOffset = position;
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(recordBytes);
+            for (int i = 0; i < records.size(); i++) {
+                AppRecord app = records.get(i);
+                recordBytes.reset();
+                record.writeInt(app.name);
+                record.writeInt(app.bundleID);
+                record.writeInt(app.art);
+                record.writeInt(app.artVersion);
+                record.writeInt(app.developer);
+                record.writeInt(app.devVersion);
+                record.writeBoolean(app.usesMetaName);
+                record.writeInt(app.versions.size());
+                for (VersionRecord version : app.versions) {
+                    record.writeInt(version.version);
+                    record.writeInt(version.supportedVersion);
+                    record.writeInt(version.links.length);
+                    for (App.VersionLink link : version.links) {
+                        record.writeInt(table.ids.get(link.getUrl()));
+                        record.writeInt(table.ids.get(link.getBuildVersion()));
+                        record.writeLong(link.getSizeInBytes());
+                        Binary binary = link.getBinary();
+                        record.writeBoolean(binary != null);
+                        if (binary != null) {
+                            record.writeInt(binary.getSupportedMask());
+                            record.writeInt(binary.getEncryptedMask());
+                        }
+                    }
+                }
+                recordOffsets[i] = position;
+                out.writeInt(recordBytes.size());
+                recordBytes.writeTo(out);
+                position += 4 + recordBytes.size();
+            }
+            header.indexOffset = position;
+            Integer[] order = new Integer[records.size()];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, (o1, o2) -> compareUtf8(encoded[records.get(o1).bundleID], encoded[records.get(o2).bundleID]));
+            for (int i : order) {
+                out.writeInt(records.get(i).bundleID);
+                out.writeLong(recordOffsets[i]);
+            }
+            out.flush();
+            header.checksum = crc.getValue();
+        }
+        try (RandomAccessFile headerFile = new RandomAccessFile(file, "rw")) {
+            headerFile.writeInt(MAGIC);
+            headerFile.writeInt(FORMAT_VERSION);
+            headerFile.writeInt(header.appCount);
+            headerFile.writeInt(header.stringCount);
+            headerFile.writeInt(header.archCount);
+            headerFile.writeLong(header.stringsOffset);
+            headerFile.writeLong(header.recordsOffset);
+            headerFile.writeLong(header.indexOffset);
+            headerFile.writeLong(header.checksum);
+        }
+    }
+    
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileInputStream stream = new FileInputStream(file); FileChannel channel = stream.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Binary database is too large to map: " + channel.size() + " bytes");
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+    
+    private static Header readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a binary database");
+        if (buffer.getInt(4) != FORMAT_VERSION)
+            throw new IOException("Unsupported binary database version " + buffer.getInt(4));
+        Header header = new Header();
+        header.appCount = buffer.getInt(8);
+        header.stringCount = buffer.getInt(12);
+        header.archCount = buffer.getInt(16);
+        header.stringsOffset = buffer.getLong(20);
+        header.recordsOffset = buffer.getLong(28);
+        header.indexOffset = buffer.getLong(36);
+        header.checksum = buffer.getLong(44);
+        if (header.indexOffset + (long) header.appCount * INDEX_ENTRY_SIZE != buffer.limit())
+            throw new IOException("Binary database is truncated");
+        return header;
+    }
+    
+    private static void verifyChecksum(ByteBuffer buffer, Header header) throws IOException {
+        ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if (crc.getValue() != header.checksum)
+            throw new IOException("Binary database checksum mismatch");
+    }
+    
+    private static byte[] stringBytes(ByteBuffer buffer, Header header, int id) {
+        int offsets = (int) header.stringsOffset;
+        int start = buffer.getInt(offsets + 4 * id);
+        byte[] bytes = new byte[buffer.getInt(offsets + 4 * id + 4) - start];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offsets + 4 * (header.stringCount + 1) + start);
+        slice.get(bytes);
+        return bytes;
+    }
+    
+    private static String[] readStrings(ByteBuffer buffer, Header header) {
+        String[] strings = new String[header.stringCount];
+        IntStream.range(0, strings.length).parallel().forEach(i ->
+                strings[i] = new String(stringBytes(buffer, header, i), StandardCharsets.UTF_8));
+        return strings;
+    }
+    
+    private static CPUarch[] readArches(ByteBuffer buffer, Header header, IntFunction<String> strings) {
+        CPUarch[] arches = new CPUarch[header.archCount];
+        for (int i = 0; i < arches.length; i++) {
+            try {
+                arches[i] = CPUarch.valueOf(strings.apply(buffer.getInt(HEADER_SIZE + 4 * i)));
+            } catch (IllegalArgumentException e) {
+                arches[i] = CPUarch.UNKNOWN;
+            }
+        }
+        return arches;
+    }
+    
+    // The masks use the arch order of whoever wrote the file, so they're translated bit by bit
+    private static Binary decodeBinary(int supported, int encrypted, CPUarch[] arches) {
+        int supportedMask = 0;
+        int encryptedMask = 0;
+        for (int i = 0; i < arches.length; i++) {
+            if ((supported & (1 << i)) != 0)
+                supportedMask |= 1 << arches[i].ordinal();
+            if ((encrypted & (1 << i)) != 0)
+                encryptedMask |= 1 << arches[i].ordinal();
+        }
+        return Binary.of(supportedMask, encryptedMask);
+    }
+    
+    private static App readRecord(ByteBuffer buffer, int offset, IntFunction<String> strings, CPUarch[] arches) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset + 4);
+        App app = new App(strings.apply(record.getInt()), strings.apply(record.getInt()));
+        String art = strings.apply(record.getInt());
+        String artVersion = strings.apply(record.getInt());
+        String developer = strings.apply(record.getInt());
+        String devVersion = strings.apply(record.getInt());
+        boolean usesMetaName = record.get() != 0;
+        int versionCount = record.getInt();
+        for (int i = 0; i < versionCount; i++) {
+            String version = strings.apply(record.getInt());
+            String supportedVersion = strings.apply(record.getInt());
+            App.VersionLink[] links = new App.VersionLink[record.getInt()];
+            for (int j = 0; j < links.length; j++) {
+                String url = strings.apply(record.getInt());
+                String buildVersion = strings.apply(record.getInt());
+                long size = record.getLong();
+                Binary binary = null;
+                if (record.get() != 0)
+                    binary = decodeBinary(record.getInt(), record.getInt(), arches);
+                links[j] = new App.VersionLink(binary, url, buildVersion, size);
+            }
+            app.addAppVersionNoSort(version, links, supportedVersion);
+        }
+        app.updateArtwork(artVersion, art);
+        app.updateDeveloper(devVersion, developer);
+        if (usesMetaName)
+            app.usedMetaName();
+        app.sortVersions();
+        return app;
+    }
+    
+    // Strings and records are decoded in parallel, but apps still reach the consumer in the order they were saved
+    static void read(File file, boolean skipEmptyIcons, boolean skipDataIcons, Consumer<App> consumer) throws IOException {
+        MappedByteBuffer buffer = map(file);
+        Header header = readHeader(buffer);
+        verifyChecksum(buffer, header);
+        String[] table = readStrings(buffer, header);
+        IntFunction<String> strings = id -> table[id];
+        CPUarch[] arches = readArches(buffer, header, strings);
+        int index = (int) header.indexOffset;
+        int[] offsets = new int[header.appCount];
+        for (int i = 0; i < offsets.length; i++)
+            offsets[i] = (int) buffer.getLong(index + INDEX_ENTRY_SIZE * i + 4);
+        Arrays.sort(offsets);
+        App[] apps = new App[offsets.length];
+        IntStream.range(0, offsets.length).parallel().forEach(i -> apps[i] = readRecord(buffer, offsets[i], strings, arches));
+        for (App app : apps) {
+            if (skipEmptyIcons && app.getArtworkURL().isEmpty()) continue;
+            if (skipDataIcons && IconStore.isGenerated(app.getArtworkURL())) continue;
+            consumer.accept(app);
+        }
+    }
+    
+    // Looks up one app through the bundle ID index without decoding the rest of the file
+    static App readApp(File file, String bundleID) throws IOException {
+        MappedByteBuffer buffer = map(file);
+        Header header = readHeader(buffer);
+        byte[] wanted = bundleID.getBytes(StandardCharsets.UTF_8);
+        int index = (int) header.indexOffset;
+        int low = 0;
+        int high = header.appCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comp = compareUtf8(stringBytes(buffer, header, buffer.getInt(index + INDEX_ENTRY_SIZE * mid)), wanted);
+            if (comp < 0) low = mid + 1;
+            else if (comp > 0) high = mid - 1;
+            else {
+                IntFunction<String> strings = id -> new String(stringBytes(buffer, header, id), StandardCharsets.UTF_8);
+                return readRecord(buffer, (int) buffer.getLong(index + INDEX_ENTRY_SIZE * mid + 4), strings,
+                        readArches(buffer, header, strings));
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,131 @@
+package ca.litten.ios_obscura_server.backend;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+// An immutable view of which apps are in the catalog. Readers should grab one per request with AppList.getCatalog().
+// The apps themselves are still updated in place; every such update publishes a new generation.
+// Only the list of apps, the bundle ID lookup and the version entries are frozen per generation. The known URLs,
+// the search index and the version index are shared with every later generation until a reload, so an older snapshot
+// sees what was added after it there; searches drop apps the snapshot doesn't contain for that reason.
+public final class Catalog {
+    private final long generation;
+    private final CatalogApps shared;
+    private final App[] appArray;
+    private final List<App> apps;
+    final Set<CompactUrl> knownUrls;
+    final SearchIndex searchIndex;
+    final VersionIndex versionIndex;
+    private final VersionIndex.Entries versionEntries;
+    private volatile CatalogColumns columns = null;
+    
+    Catalog(long generation, List<App> apps,
+            Set<CompactUrl> knownUrls, SearchIndex searchIndex, VersionIndex versionIndex) {
+        this(generation, new CatalogApps(apps), apps.size(), knownUrls, searchIndex, versionIndex);
+    }
+    
+    private Catalog(long generation, CatalogApps shared, int size,
+            Set<CompactUrl> knownUrls, SearchIndex searchIndex, VersionIndex versionIndex) {
+        this.generation = generation;
+        this.shared = shared;
+        appArray = shared.array();
+        apps = Collections.unmodifiableList(Arrays.asList(appArray).subList(0, size));
+        this.knownUrls = knownUrls;
+        this.searchIndex = searchIndex;
+        this.versionIndex = versionIndex;
+        versionEntries = versionIndex.entries();
+    }
+    
+    static Catalog empty(long generation) {
+        return new Catalog(generation, Collections.emptyList(),
+                ConcurrentHashMap.newKeySet(), new SearchIndex(), new VersionIndex());
+    }
+    
+    // Only for the newest generation, under AppList's write lock; older ones never see the app since it lands past their size
+    Catalog withApp(long generation, App app) {
+        return new Catalog(generation, shared, shared.append(app), knownUrls, searchIndex, versionIndex);
+    }
+    
+    Catalog withGeneration(long generation) {
+        return new Catalog(generation, shared, apps.size(), knownUrls, searchIndex, versionIndex);
+    }
+    
+    public long getGeneration() {
+        return generation;
+    }
+    
+    // Built the first time a page asks for it and kept for as long as this generation is current
+    public CatalogColumns getColumns() {
+        CatalogColumns current = columns;
+        if (current != null) return current;
+        synchronized (this) {
+            if (columns == null)
+                columns = CatalogColumns.of(this);
+            return columns;
+        }
+    }
+    
+    public List<App> getApps() {
+        return apps;
+    }
+    
+    public int size() {
+        return apps.size();
+    }
+    
+    public boolean contains(App app) {
+        return app != null && getAppByBundleID(app.getBundleID()) == app;
+    }
+    
+    public App getAppByBundleID(String bundleID) {
+        if (bundleID == null) return null;
+        int position = shared.positionOf(bundleID);
+        return (position >= 0 && position < apps.size()) ? appArray[position] : null;
+    }
+    
+    public List<App> listAppsThatSupportVersion(String version) {
+        return listAppsThatSupportVersion(VersionKey.of(version));
+    }
+    
+    public List<App> listAppsThatSupportVersion(VersionKey version) {
+        return versionEntries.appsForVersion(version);
+    }
+    
+    public int countAppsThatSupportVersion(String version) {
+        return countAppsThatSupportVersion(VersionKey.of(version));
+    }
+    
+    public int countAppsThatSupportVersion(VersionKey version) {
+        return versionEntries.countForVersion(version);
+    }
+    
+    public List<App> searchApps(String query, String version) {
+        return searchApps(query, VersionKey.of(version));
+    }
+    
+    public List<App> searchApps(String query, VersionKey version) {
+        if (SearchIndex.canSearch(query)) {
+            List<App> results = searchIndex.search(query);
+            results.removeIf(app -> !contains(app) || !app.showAppForVersion(version));
+            return results;
+        }
+        return versionEntries.appsForVersion(version).parallelStream()
+                .filter(app -> app.getName().toLowerCase().contains(query.toLowerCase()))
+                .sorted(searchIndex.comparator()).collect(Collectors.toList());
+    }
+    
+    public List<App> searchApps(String query) {
+        if (SearchIndex.canSearch(query)) {
+            List<App> results = searchIndex.search(query);
+            results.removeIf(app -> !contains(app));
+            return results;
+        }
+        return apps.parallelStream().filter(app -> app.getName().toLowerCase().contains(query.toLowerCase()))
+                .sorted(Comparator.comparingInt(o -> o.getName().length())).collect(Collectors.toList());
+    }
+    
+    public boolean appUrlAlreadyExists(String url) {
+        return knownUrls.contains(CompactUrl.lookup(url));
+    }
+}
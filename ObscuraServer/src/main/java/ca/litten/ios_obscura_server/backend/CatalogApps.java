@@ -0,0 +1,41 @@
+package ca.litten.ios_obscura_server.backend;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The apps of every catalog generation between two reloads, in the order they were listed.
+// Apps are only ever appended, so a snapshot is just how many there were when it was taken and never sees later ones,
+// and listing an app doesn't copy everything listed before it.
+final class CatalogApps {
+    private App[] apps;
+    private int size;
+    private final ConcurrentHashMap<String, Integer> positions = new ConcurrentHashMap<>();
+    
+    CatalogApps(List<App> initial) {
+        apps = initial.toArray(new App[Math.max(16, initial.size())]);
+        size = initial.size();
+        for (int i = 0; i < size; i++)
+            positions.put(apps[i].getBundleID(), i);
+    }
+    
+    // Only called under AppList's write lock; the catalog holding the new size is published after, which makes the slot visible
+    int append(App app) {
+        if (size == apps.length)
+            apps = Arrays.copyOf(apps, size * 2);
+        apps[size] = app;
+        positions.put(app.getBundleID(), size);
+        return ++size;
+    }
+    
+    // Growing replaces the array, so a snapshot keeps the one it was taken with; slots below its size never change
+    App[] array() {
+        return apps;
+    }
+    
+    // The app's slot, which only a snapshot with more apps than that can see
+    int positionOf(String bundleID) {
+        Integer position = positions.get(bundleID);
+        return (position == null) ? -1 : position;
+    }
+}
@@ -0,0 +1,271 @@
+package ca.litten.ios_obscura_server.backend;
+
+import ca.litten.ios_obscura_server.parser.Binary;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// A read-only copy of one catalog generation laid out as parallel arrays, for pages that walk every app and link.
+// Apps own a range of versions and versions own a range of links; strings are stored once and referred to by id.
+// Apps are in the same order searchApps("") returns them.
+public final class CatalogColumns {
+    private final String[] strings;
+    
+    private final int[] appBundleID;
+    private final int[] appName;
+    private final int[] appDeveloper;
+    private final int[] appVersionStart; // one longer than there are apps
+    
+    private final int[] versionName;
+    private final int[] versionSupported;
+    private final int[] versionSupportRank; // position of the supported version in supportKeys
+    private final int[] versionLinkStart; // one longer than there are versions
+    private final VersionKey[] supportKeys; // every distinct supported version, sorted
+    
+    private final int[] linkPrefix;
+    private final int[] linkSuffixStart; // one longer than there are links
+    private final byte[] linkSuffixes;
+    private final int[] linkBuildVersion;
+    private final long[] linkSize;
+    private final int[] linkSupportedMask;
+    private final int[] linkEncryptedMask;
+    private final boolean[] linkHasBinary;
+    
+    private static class Builder {
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        private final ArrayList<String> strings = new ArrayList<>();
+        private final HashMap<VersionKey, Integer> supportKeys = new HashMap<>();
+        private int[] versionName, versionSupported, versionLinkStart;
+        private VersionKey[] versionKeys;
+        private int[] linkPrefix, linkSuffixStart, linkBuildVersion, linkSupportedMask, linkEncryptedMask;
+        private long[] linkSize;
+        private boolean[] linkHasBinary;
+        private final ByteArrayOutputStream suffixes = new ByteArrayOutputStream();
+        private int versions = 0;
+        private int links = 0;
+        
+        private Builder(int versionCount, int linkCount) {
+            versionName = new int[versionCount];
+            versionSupported = new int[versionCount];
+            versionKeys = new VersionKey[versionCount];
+            versionLinkStart = new int[versionCount + 1];
+            linkPrefix = new int[linkCount];
+            linkSuffixStart = new int[linkCount + 1];
+            linkBuildVersion = new int[linkCount];
+            linkSize = new long[linkCount];
+            linkSupportedMask = new int[linkCount];
+            linkEncryptedMask = new int[linkCount];
+            linkHasBinary = new boolean[linkCount];
+        }
+        
+        private int id(String value) {
+            if (value == null) return -1;
+            Integer id = ids.get(value);
+            if (id != null) return id;
+            ids.put(value, strings.size());
+            strings.add(value);
+            return strings.size() - 1;
+        }
+        
+        // The app's versions may have changed since it was counted, so the arrays grow if they have to
+        private void ensureCapacity(int moreVersions, int moreLinks) {
+            if (versions + moreVersions > versionName.length) {
+                int size = Math.max(versionName.length * 2, versions + moreVersions);
+                versionName = Arrays.copyOf(versionName, size);
+                versionSupported = Arrays.copyOf(versionSupported, size);
+                versionKeys = Arrays.copyOf(versionKeys, size);
+                versionLinkStart = Arrays.copyOf(versionLinkStart, size + 1);
+            }
+            if (links + moreLinks > linkPrefix.length) {
+                int size = Math.max(linkPrefix.length * 2, links + moreLinks);
+                linkPrefix = Arrays.copyOf(linkPrefix, size);
+                linkSuffixStart = Arrays.copyOf(linkSuffixStart, size + 1);
+                linkBuildVersion = Arrays.copyOf(linkBuildVersion, size);
+                linkSize = Arrays.copyOf(linkSize, size);
+                linkSupportedMask = Arrays.copyOf(linkSupportedMask, size);
+                linkEncryptedMask = Arrays.copyOf(linkEncryptedMask, size);
+                linkHasBinary = Arrays.copyOf(linkHasBinary, size);
+            }
+        }
+        
+        private void addVersion(String version, String supportedVersion, App.VersionLink[] versionLinks) {
+            ensureCapacity(1, versionLinks.length);
+            versionName[versions] = id(version);
+            versionSupported[versions] = id(supportedVersion);
+            versionKeys[versions] = VersionKey.of(supportedVersion);
+            supportKeys.putIfAbsent(versionKeys[versions], supportKeys.size());
+            versionLinkStart[versions] = links;
+            versions++;
+            for (App.VersionLink link : versionLinks) {
+                CompactUrl url = link.getCompactUrl();
+                linkPrefix[links] = id(url.getPrefix());
+                linkSuffixStart[links] = suffixes.size();
+                suffixes.write(url.getSuffix(), 0, url.getSuffix().length);
+                linkBuildVersion[links] = id(link.getBuildVersion());
+                linkSize[links] = link.getSizeInBytes();
+                if (link.getBinary() != null) {
+                    linkHasBinary[links] = true;
+                    linkSupportedMask[links] = link.getBinary().getSupportedMask();
+                    linkEncryptedMask[links] = link.getBinary().getEncryptedMask();
+                }
+                links++;
+            }
+        }
+    }
+    
+    private CatalogColumns(List<App> apps) {
+        int versionCount = 0;
+        int linkCount = 0;
+        for (App app : apps) {
+            versionCount += app.getVersionCount();
+            linkCount += app.countUrls();
+        }
+        Builder builder = new Builder(versionCount, linkCount);
+        appBundleID = new int[apps.size()];
+        appName = new int[apps.size()];
+        appDeveloper = new int[apps.size()];
+        appVersionStart = new int[apps.size() + 1];
+        for (int i = 0; i < apps.size(); i++) {
+            App app = apps.get(i);
+            appBundleID[i] = builder.id(app.getBundleID());
+            appName[i] = builder.id(app.getName());
+            appDeveloper[i] = builder.id(app.getDeveloper());
+            appVersionStart[i] = builder.versions;
+            app.forEachSortedVersion(builder::addVersion);
+        }
+        appVersionStart[apps.size()] = builder.versions;
+        strings = builder.strings.toArray(new String[0]);
+        
+        supportKeys = builder.supportKeys.keySet().toArray(new VersionKey[0]);
+        Arrays.sort(supportKeys);
+        HashMap<VersionKey, Integer> ranks = new HashMap<>();
+        for (int i = 0; i < supportKeys.length; i++)
+            ranks.put(supportKeys[i], i);
+        versionName = Arrays.copyOf(builder.versionName, builder.versions);
+        versionSupported = Arrays.copyOf(builder.versionSupported, builder.versions);
+        versionSupportRank = new int[builder.versions];
+        for (int i = 0; i < builder.versions; i++)
+            versionSupportRank[i] = ranks.get(builder.versionKeys[i]);
+        versionLinkStart = Arrays.copyOf(builder.versionLinkStart, builder.versions + 1);
+        versionLinkStart[builder.versions] = builder.links;
+        
+        linkPrefix = Arrays.copyOf(builder.linkPrefix, builder.links);
+        linkSuffixStart = Arrays.copyOf(builder.linkSuffixStart, builder.links + 1);
+        linkSuffixes = builder.suffixes.toByteArray();
+        linkSuffixStart[builder.links] = linkSuffixes.length;
+        linkBuildVersion = Arrays.copyOf(builder.linkBuildVersion, builder.links);
+        linkSize = Arrays.copyOf(builder.linkSize, builder.links);
+        linkSupportedMask = Arrays.copyOf(builder.linkSupportedMask, builder.links);
+        linkEncryptedMask = Arrays.copyOf(builder.linkEncryptedMask, builder.links);
+        linkHasBinary = Arrays.copyOf(builder.linkHasBinary, builder.links);
+    }
+    
+    static CatalogColumns of(Catalog catalog) {
+        return new CatalogColumns(catalog.searchApps(""));
+    }
+    
+    public int getAppCount() {
+        return appBundleID.length;
+    }
+    
+    public int getVersionCount() {
+        return versionName.length;
+    }
+    
+    public int getLinkCount() {
+        return linkPrefix.length;
+    }
+    
+    public String getBundleID(int app) {
+        return strings[appBundleID[app]];
+    }
+    
+    public String getName(int app) {
+        return strings[appName[app]];
+    }
+    
+    public String getDeveloper(int app) {
+        int id = appDeveloper[app];
+        return (id == -1) ? null : strings[id];
+    }
+    
+    public int getFirstVersion(int app) {
+        return appVersionStart[app];
+    }
+    
+    public int getVersionEnd(int app) {
+        return appVersionStart[app + 1];
+    }
+    
+    public int countUrls(int app) {
+        return versionLinkStart[appVersionStart[app + 1]] - versionLinkStart[appVersionStart[app]];
+    }
+    
+    public String getVersion(int version) {
+        return strings[versionName[version]];
+    }
+    
+    public String getSupportedVersion(int version) {
+        return strings[versionSupported[version]];
+    }
+    
+    // Versions with a support rank below this limit run on the given OS version
+    public int supportLimit(VersionKey os) {
+        int low = 0;
+        int high = supportKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (App.isVersionLater(supportKeys[mid], os)) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+    
+    public boolean isSupported(int version, int supportLimit) {
+        return versionSupportRank[version] < supportLimit;
+    }
+    
+    public int getFirstLink(int version) {
+        return versionLinkStart[version];
+    }
+    
+    public int getLinkEnd(int version) {
+        return versionLinkStart[version + 1];
+    }
+    
+    public String getUrl(int link) {
+        int start = linkSuffixStart[link];
+        return strings[linkPrefix[link]] + new String(linkSuffixes, start, linkSuffixStart[link + 1] - start, StandardCharsets.UTF_8);
+    }
+    
+    public String getBuildVersion(int link) {
+        int id = linkBuildVersion[link];
+        return (id == -1) ? null : strings[id];
+    }
+    
+    public long getSizeInBytes(int link) {
+        return linkSize[link];
+    }
+    
+    public String getSize(int link) {
+        return App.VersionLink.formatSize(linkSize[link]);
+    }
+    
+    public boolean hasBinary(int link) {
+        return linkHasBinary[link];
+    }
+    
+    public Binary getBinary(int link) {
+        if (!linkHasBinary[link]) return null;
+        return Binary.of(linkSupportedMask[link], linkEncryptedMask[link]);
+    }
+    
+    public int getSupportedMask(int link) {
+        return linkSupportedMask[link];
+    }
+    
+    public int getEncryptedMask(int link) {
+        return linkEncryptedMask[link];
+    }
+}
@@ -0,0 +1,41 @@
+package ca.litten.ios_obscura_server.backend;
+
+public final class CatalogEvent {
+    public enum Type {
+        APP_ADDED,
+        VERSION_ADDED,
+        ARTWORK_CHANGED,
+        DEVELOPER_CHANGED,
+        NAME_CHANGED,
+        CATALOG_RELOADED
+    }
+    
+    private final Type type;
+    private final String bundleID;
+    private final long generation;
+    
+    CatalogEvent(Type type, String bundleID, long generation) {
+        this.type = type;
+        this.bundleID = bundleID;
+        this.generation = generation;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    // null for CATALOG_RELOADED, which replaces every app at once
+    public String getBundleID() {
+        return bundleID;
+    }
+    
+    // The catalog generation the change was published in
+    public long getGeneration() {
+        return generation;
+    }
+    
+    @Override
+    public String toString() {
+        return type + (bundleID == null ? "" : " " + bundleID) + " @" + generation;
+    }
+}
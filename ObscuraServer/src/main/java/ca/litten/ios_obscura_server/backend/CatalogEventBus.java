@@ -0,0 +1,75 @@
+package ca.litten.ios_obscura_server.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Hands catalog changes to listeners on one background thread, so a slow listener never holds up the parser
+class CatalogEventBus {
+    private static final int MAX_BATCH = 1024;
+    
+    private final LinkedBlockingQueue<CatalogEvent> queue = new LinkedBlockingQueue<>();
+    private final CopyOnWriteArrayList<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+    private final Object deliveryLock = new Object();
+    private long published = 0;
+    private long delivered = 0;
+    
+    CatalogEventBus() {
+        Thread thread = new Thread(this::run, "Catalog events");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    void addListener(CatalogListener listener) {
+        listeners.add(listener);
+    }
+    
+    void removeListener(CatalogListener listener) {
+        listeners.remove(listener);
+    }
+    
+    // Callers publish under AppList's write lock, so the queue is already in generation order
+    void publish(CatalogEvent event) {
+        if (listeners.isEmpty()) return;
+        synchronized (deliveryLock) {
+            published++;
+        }
+        queue.add(event);
+    }
+    
+    // Blocks until everything published so far has reached the listeners
+    void flush() throws InterruptedException {
+        synchronized (deliveryLock) {
+            long target = published;
+            while (delivered < target)
+                deliveryLock.wait();
+        }
+    }
+    
+    private void run() {
+        List<CatalogEvent> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            List<CatalogEvent> events = Collections.unmodifiableList(new ArrayList<>(batch));
+            for (CatalogListener listener : listeners) {
+                try {
+                    listener.catalogChanged(events);
+                } catch (RuntimeException e) {
+                    System.err.println(e);
+                }
+            }
+            synchronized (deliveryLock) {
+                delivered += batch.size();
+                deliveryLock.notifyAll();
+            }
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package ca.litten.ios_obscura_server.backend;
+
+import java.util.List;
+
+// Called on the event thread with changes in the order they were published, never on the thread that made them
+public interface CatalogListener {
+    void catalogChanged(List<CatalogEvent> events);
+}
@@ -0,0 +1,143 @@
+package ca.litten.ios_obscura_server.backend;
+
+import java.util.*;
+
+// Version and URL counts kept up to date from catalog events, bucketed by the OS version each app version needs.
+// Answering "how many run on iOS X" is a binary search over a small cumulative table rather than a pass over every app.
+public final class CatalogStats implements CatalogListener {
+    private static class Contribution {
+        private final VersionKey[] supportedKeys;
+        private final int[] urlCounts;
+        
+        private Contribution(App app) {
+            List<VersionKey> keys = new ArrayList<>();
+            List<Integer> urls = new ArrayList<>();
+            app.visitVersionTable((supportedKey, urlCount) -> {
+                keys.add(supportedKey);
+                urls.add(urlCount);
+            });
+            supportedKeys = keys.toArray(new VersionKey[0]);
+            urlCounts = new int[supportedKeys.length];
+            for (int i = 0; i < urlCounts.length; i++)
+                urlCounts[i] = urls.get(i);
+        }
+    }
+    
+    private static class Table {
+        private final VersionKey[] keys;
+        private final long[] versions; // cumulative, so versions[i] covers every key up to keys[i]
+        private final long[] urls;
+        private final int appCount;
+        private final long generation;
+        
+        private Table(Map<VersionKey, long[]> histogram, int appCount, long generation) {
+            keys = histogram.keySet().toArray(new VersionKey[0]);
+            Arrays.sort(keys);
+            versions = new long[keys.length];
+            urls = new long[keys.length];
+            long versionTotal = 0;
+            long urlTotal = 0;
+            for (int i = 0; i < keys.length; i++) {
+                long[] bucket = histogram.get(keys[i]);
+                versionTotal += bucket[0];
+                urlTotal += bucket[1];
+                versions[i] = versionTotal;
+                urls[i] = urlTotal;
+            }
+            this.appCount = appCount;
+            this.generation = generation;
+        }
+        
+        // Number of buckets whose key is supported by the given version
+        private int upperBound(VersionKey version) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (App.isVersionLater(keys[mid], version)) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+    }
+    
+    private final HashMap<String, Contribution> contributions = new HashMap<>();
+    private final HashMap<VersionKey, long[]> histogram = new HashMap<>();
+    private volatile Table table = new Table(Collections.emptyMap(), 0, 0);
+    
+    private void add(Contribution contribution, int sign) {
+        for (int i = 0; i < contribution.supportedKeys.length; i++) {
+            long[] bucket = histogram.computeIfAbsent(contribution.supportedKeys[i], key -> new long[2]);
+            bucket[0] += sign;
+            bucket[1] += (long) sign * contribution.urlCounts[i];
+            if (bucket[0] == 0) histogram.remove(contribution.supportedKeys[i]);
+        }
+    }
+    
+    private void rebuild(Catalog catalog) {
+        contributions.clear();
+        histogram.clear();
+        for (App app : catalog.getApps()) {
+            Contribution contribution = new Contribution(app);
+            contributions.put(app.getBundleID(), contribution);
+            add(contribution, 1);
+        }
+    }
+    
+    private void update(Catalog catalog, String bundleID) {
+        Contribution old = contributions.remove(bundleID);
+        if (old != null) add(old, -1);
+        App app = catalog.getAppByBundleID(bundleID);
+        if (app == null) return;
+        Contribution contribution = new Contribution(app);
+        contributions.put(bundleID, contribution);
+        add(contribution, 1);
+    }
+    
+    // Every change is recounted from the app as it is now, so events that arrive late can't skew the totals
+    @Override
+    public void catalogChanged(List<CatalogEvent> events) {
+        Catalog catalog = AppList.getCatalog();
+        boolean reloaded = events.stream().anyMatch(event -> event.getType() == CatalogEvent.Type.CATALOG_RELOADED);
+        long generation = table.generation;
+        for (CatalogEvent event : events)
+            generation = Math.max(generation, event.getGeneration());
+        if (reloaded) {
+            rebuild(catalog);
+        } else {
+            Set<String> changed = new HashSet<>();
+            for (CatalogEvent event : events)
+                if (event.getType() == CatalogEvent.Type.APP_ADDED || event.getType() == CatalogEvent.Type.VERSION_ADDED)
+                    changed.add(event.getBundleID());
+            for (String bundleID : changed)
+                update(catalog, bundleID);
+        }
+        table = new Table(histogram, contributions.size(), generation);
+    }
+    
+    // The catalog generation the counts are up to date with; events arrive after the fact, so this can trail AppList.getCatalog()
+    public long getGeneration() {
+        return table.generation;
+    }
+    
+    public int getAppCount() {
+        return table.appCount;
+    }
+    
+    public long getUrlCount() {
+        Table current = table;
+        return (current.urls.length == 0) ? 0 : current.urls[current.urls.length - 1];
+    }
+    
+    public long countVersionsSupporting(VersionKey version) {
+        Table current = table;
+        int index = current.upperBound(version);
+        return (index == 0) ? 0 : current.versions[index - 1];
+    }
+    
+    public long countUrlsSupporting(VersionKey version) {
+        Table current = table;
+        int index = current.upperBound(version);
+        return (index == 0) ? 0 : current.urls[index - 1];
+    }
+}
@@ -0,0 +1,126 @@
+package ca.litten.ios_obscura_server.backend;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// One JSON event per line, appended as the catalog changes and synced to disk in batches instead of per event.
+// Compaction moves the live file aside as the ".old" segment, which is deleted once a base database containing it is saved.
+class ChangeJournal {
+    private static final long FLUSH_INTERVAL = 500;
+    
+    private final File file;
+    private final File oldSegment;
+    private final ArrayList<String> pending = new ArrayList<>();
+    private final ScheduledExecutorService flusher;
+    private FileOutputStream stream;
+    private Writer writer;
+    
+    ChangeJournal(File file) throws IOException {
+        this.file = file;
+        oldSegment = new File(file.getPath() + ".old");
+        open();
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Journal flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+    
+    // A torn last line is cut off with a newline so that new entries after it can still be replayed
+    private void open() throws IOException {
+        boolean torn = false;
+        if (file.length() > 0) {
+            try (RandomAccessFile existing = new RandomAccessFile(file, "r")) {
+                existing.seek(existing.length() - 1);
+                torn = existing.read() != '\n';
+            }
+        }
+        stream = new FileOutputStream(file, true);
+        writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        if (torn) writer.write('\n');
+    }
+    
+    void append(JSONObject event) {
+        String line = event.toString();
+        synchronized (pending) {
+            pending.add(line);
+        }
+    }
+    
+    synchronized void flush() throws IOException {
+        String[] lines;
+        synchronized (pending) {
+            if (pending.isEmpty()) return;
+            lines = pending.toArray(new String[0]);
+            pending.clear();
+        }
+        for (String line : lines) {
+            writer.write(line);
+            writer.write('\n');
+        }
+        writer.flush();
+        stream.getChannel().force(false);
+    }
+    
+    long size() {
+        return file.length();
+    }
+    
+    // Everything journaled so far ends up in the old segment, which a failed compaction may have left behind already
+    synchronized File rotate() throws IOException {
+        flush();
+        writer.close();
+        if (oldSegment.exists()) {
+            Files.write(oldSegment.toPath(), Files.readAllBytes(file.toPath()), StandardOpenOption.APPEND);
+            Files.delete(file.toPath());
+        } else if (!file.renameTo(oldSegment)) {
+            throw new IOException("Failed to rotate journal " + file);
+        }
+        open();
+        return oldSegment;
+    }
+    
+    synchronized void close() throws IOException {
+        flusher.shutdown();
+        flush();
+        writer.close();
+    }
+    
+    static void replay(File file, Consumer<JSONObject> consumer) throws IOException {
+        File oldSegment = new File(file.getPath() + ".old");
+        for (File segment : new File[]{oldSegment, file}) {
+            if (!segment.exists()) continue;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(segment), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) continue;
+                    JSONObject event;
+                    try {
+                        event = new JSONObject(line);
+                    } catch (JSONException e) {
+                        System.err.println("Skipped a damaged entry in " + segment);
+                        continue;
+                    }
+                    consumer.accept(event);
+                }
+            }
+        }
+    }
+}
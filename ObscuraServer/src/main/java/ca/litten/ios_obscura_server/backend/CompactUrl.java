@@ -0,0 +1,56 @@
+package ca.litten.ios_obscura_server.backend;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// A URL split at its last '/': the directory is pooled, since thousands of links share an archive.org item,
+// and only the file name is kept per link, as UTF-8. Hashes like the full URL string would.
+final class CompactUrl {
+    private final String prefix;
+    private final byte[] suffix;
+    private final int hash;
+    
+    private CompactUrl(String url, boolean pooled) {
+        int split = url.lastIndexOf('/') + 1;
+        String directory = url.substring(0, split);
+        prefix = pooled ? StringPool.intern(directory) : directory;
+        suffix = url.substring(split).getBytes(StandardCharsets.UTF_8);
+        hash = url.hashCode();
+    }
+    
+    static CompactUrl of(String url) {
+        return new CompactUrl(url, true);
+    }
+    
+    // For looking a URL up without adding its directory to the pool
+    static CompactUrl lookup(String url) {
+        return new CompactUrl(url, false);
+    }
+    
+    String getPrefix() {
+        return prefix;
+    }
+    
+    // Not a copy; callers must not change it
+    byte[] getSuffix() {
+        return suffix;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompactUrl)) return false;
+        CompactUrl other = (CompactUrl) o;
+        return hash == other.hash && prefix.equals(other.prefix) && Arrays.equals(suffix, other.suffix);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    @Override
+    public String toString() {
+        return prefix + new String(suffix, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,259 @@
+package ca.litten.ios_obscura_server.backend;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Generated icons, stored once each in an append-only file keyed by their SHA-256 and served straight from a mapping of it.
+// Apps only keep an "icon:<hash>" reference instead of the whole image as a base64 data URI.
+//
+// Layout: magic, then one record per icon: hash, content type length and UTF-8, data length, data
+public class IconStore {
+    public static final String PREFIX = "icon:";
+    private static final int MAGIC = 0x4F424943; // "OBIC"
+    private static final int HASH_SIZE = 32;
+    // The store is mapped a segment at a time, since one buffer can't reach past 2 GiB
+    private static final long SEGMENT_SIZE = 1 << 30;
+    
+    public static class Icon {
+        private final String contentType;
+        private final ByteBuffer data;
+        
+        private Icon(String contentType, ByteBuffer data) {
+            this.contentType = contentType;
+            this.data = data;
+        }
+        
+        public String getContentType() {
+            return contentType;
+        }
+        
+        // A read-only view of the mapped file; every call gets its own position
+        public ByteBuffer getData() {
+            return data.duplicate();
+        }
+        
+        public int getLength() {
+            return data.remaining();
+        }
+    }
+    
+    private static class Entry {
+        final String contentType;
+        final long offset;
+        final int length;
+        // Only for a record that runs across the end of a segment, which gets mapped on its own
+        volatile ByteBuffer alone = null;
+        
+        Entry(String contentType, long offset, int length) {
+            this.contentType = contentType;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+    
+    private static final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private static volatile RandomAccessFile file = null;
+    private static volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private static final AtomicLong interned = new AtomicLong();
+    
+    public static boolean isStoredIcon(String artwork) {
+        return artwork.startsWith(PREFIX);
+    }
+    
+    // Icons made from the app bundle, as opposed to artwork found online
+    public static boolean isGenerated(String artwork) {
+        return artwork.startsWith("data:") || isStoredIcon(artwork);
+    }
+    
+    public static boolean isOpen() {
+        return file != null;
+    }
+    
+    // Reads the index back from the records; anything after the last complete record is cut off
+    public static synchronized void open(File location) {
+        try {
+            close();
+            RandomAccessFile store = new RandomAccessFile(location, "rw");
+            if (store.length() == 0) {
+                store.writeInt(MAGIC);
+            } else if (store.readInt() != MAGIC) {
+                store.close();
+                throw new IOException("Not an icon store: " + location);
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(store.getFD()), 1 << 16));
+            long position = 4;
+            long length = store.length();
+            byte[] hash = new byte[HASH_SIZE];
+            try {
+                while (position < length) {
+                    in.readFully(hash);
+                    byte[] type = new byte[in.readUnsignedShort()];
+                    in.readFully(type);
+                    String contentType = new String(type, StandardCharsets.UTF_8);
+                    int size = in.readInt();
+                    long offset = position + HASH_SIZE + 2 + type.length + 4;
+                    if (offset + size > length) break;
+                    if (in.skipBytes(size) != size) break;
+                    entries.put(hex(hash), new Entry(contentType, offset, size));
+                    position = offset + size;
+                }
+            } catch (EOFException e) {
+                // Torn record at the end
+            }
+            if (position < length) {
+                System.err.println("Icon store ends in an incomplete record, dropping it.");
+                store.setLength(position);
+            }
+            file = store;
+            segments = new MappedByteBuffer[0];
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+    
+    public static synchronized void close() throws IOException {
+        if (file != null)
+            file.close();
+        file = null;
+        segments = new MappedByteBuffer[0];
+        entries.clear();
+    }
+    
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return builder.toString();
+    }
+    
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    // Returns the reference to use as artwork, or null if the store isn't open
+    public static String store(String contentType, byte[] data) {
+        byte[] hash = sha256(data);
+        String key = hex(hash);
+        if (entries.containsKey(key)) return PREFIX + key;
+        synchronized (IconStore.class) {
+            if (file == null) return null;
+            if (entries.containsKey(key)) return PREFIX + key;
+            try {
+                ByteArrayOutputStream record = new ByteArrayOutputStream(HASH_SIZE + 64 + data.length);
+                DataOutputStream out = new DataOutputStream(record);
+                out.write(hash);
+                byte[] type = contentType.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(type.length);
+                out.write(type);
+                out.writeInt(data.length);
+                int header = record.size();
+                out.write(data);
+                long position = file.length();
+                FileChannel channel = file.getChannel();
+                channel.write(ByteBuffer.wrap(record.toByteArray()), position);
+                channel.force(false);
+                entries.put(key, new Entry(contentType, position + header, data.length));
+                return PREFIX + key;
+            } catch (IOException e) {
+                System.err.println(e);
+                return null;
+            }
+        }
+    }
+    
+    // Moves a data URI into the store; anything else, or anything when the store is closed, comes back unchanged
+    public static String intern(String artwork) {
+        if (artwork == null || !artwork.startsWith("data:") || !isOpen()) return artwork;
+        int separator = artwork.indexOf(";base64,");
+        if (separator == -1) return artwork;
+        byte[] data;
+        try {
+            data = Base64.getDecoder().decode(artwork.substring(separator + 8));
+        } catch (IllegalArgumentException e) {
+            return artwork;
+        }
+        String reference = store(artwork.substring(5, separator), data);
+        if (reference == null) return artwork;
+        interned.incrementAndGet();
+        return reference;
+    }
+    
+    // How many data URIs have been moved into the store so far, so a load can tell whether it migrated anything
+    public static long internedCount() {
+        return interned.get();
+    }
+    
+    // The artwork for an icon made from the app bundle: a reference if the store is open, otherwise a data URI
+    public static String artworkFor(String contentType, byte[] data) {
+        String reference = store(contentType, data);
+        if (reference != null) return reference;
+        return "data:" + contentType + ";base64," + Base64.getEncoder().encodeToString(data);
+    }
+    
+    // Segments before the last are full and never change; the last one is mapped again once records are appended past it
+    private static synchronized MappedByteBuffer segment(int index, long end) throws IOException {
+        MappedByteBuffer[] current = segments;
+        if (index < current.length && current[index] != null && current[index].capacity() >= end) return current[index];
+        if (file == null) return null;
+        long start = index * SEGMENT_SIZE;
+        MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, file.length() - start));
+        if (index >= current.length) current = Arrays.copyOf(current, index + 1);
+        else current = current.clone();
+        current[index] = buffer;
+        segments = current;
+        return buffer;
+    }
+    
+    private static synchronized ByteBuffer alone(Entry entry) throws IOException {
+        if (entry.alone == null && file != null)
+            entry.alone = file.getChannel().map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.length);
+        return entry.alone;
+    }
+    
+    public static Icon get(String artwork) {
+        if (!isStoredIcon(artwork)) return null;
+        Entry entry = entries.get(artwork.substring(PREFIX.length()));
+        if (entry == null) return null;
+        try {
+            int index = (int) (entry.offset / SEGMENT_SIZE);
+            int start = (int) (entry.offset - index * SEGMENT_SIZE);
+            ByteBuffer data;
+            if (start + (long) entry.length > SEGMENT_SIZE) {
+                data = entry.alone;
+                if (data == null) data = alone(entry);
+                if (data == null) return null;
+                data = data.duplicate();
+            } else {
+                MappedByteBuffer[] current = segments;
+                MappedByteBuffer buffer = (index < current.length) ? current[index] : null;
+                if (buffer == null || buffer.capacity() < start + entry.length)
+                    buffer = segment(index, start + entry.length);
+                if (buffer == null) return null;
+                data = buffer.duplicate();
+                data.position(start);
+                data.limit(start + entry.length);
+            }
+            return new Icon(entry.contentType, data.slice().asReadOnlyBuffer());
+        } catch (IOException e) {
+            System.err.println(e);
+            return null;
+        }
+    }
+    
+    public static int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,99 @@
+package ca.litten.ios_obscura_server.backend;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+class SearchIndex {
+    static final int GRAM_LENGTH = 3;
+    
+    private final ConcurrentHashMap<String, Set<App>> postings = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<App, String> indexedNames = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<App, Long> order = new ConcurrentHashMap<>();
+    private final AtomicLong nextOrder = new AtomicLong();
+    
+    static String normalize(String str) {
+        return str.toLowerCase();
+    }
+    
+    private static Set<String> grams(String normalized) {
+        HashSet<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= normalized.length(); i++)
+            grams.add(normalized.substring(i, i + GRAM_LENGTH));
+        return grams;
+    }
+    
+    void clear() {
+        postings.clear();
+        indexedNames.clear();
+        order.clear();
+    }
+    
+    void add(App app) {
+        order.computeIfAbsent(app, a -> nextOrder.getAndIncrement());
+        update(app);
+    }
+    
+    // For a freshly loaded catalog: order is handed out in list order, and the grams are worked out in parallel
+    synchronized void addAll(List<App> apps) {
+        for (App app : apps)
+            order.computeIfAbsent(app, a -> nextOrder.getAndIncrement());
+        apps.parallelStream().forEach(app -> {
+            String name = normalize(app.getName());
+            if (indexedNames.putIfAbsent(app, name) != null) return;
+            for (String gram : grams(name))
+                postings.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(app);
+        });
+    }
+    
+    synchronized void update(App app) {
+        if (!order.containsKey(app)) return;
+        String name = normalize(app.getName());
+        String oldName = indexedNames.put(app, name);
+        if (name.equals(oldName)) return;
+        Set<String> newGrams = grams(name);
+        if (oldName != null) {
+            for (String gram : grams(oldName)) {
+                if (newGrams.contains(gram)) continue;
+                Set<App> posting = postings.get(gram);
+                if (posting != null) posting.remove(app);
+            }
+        }
+        for (String gram : newGrams)
+            postings.computeIfAbsent(gram, g -> ConcurrentHashMap.newKeySet()).add(app);
+    }
+    
+    // Shorter queries have no grams to look up, so they have to scan the catalog instead
+    static boolean canSearch(String query) {
+        return normalize(query).length() >= GRAM_LENGTH;
+    }
+    
+    List<App> search(String query) {
+        String normalized = normalize(query);
+        List<Set<App>> lists = new ArrayList<>();
+        for (String gram : grams(normalized)) {
+            Set<App> posting = postings.get(gram);
+            if (posting == null || posting.isEmpty()) return new ArrayList<>();
+            lists.add(posting);
+        }
+        lists.sort(Comparator.comparingInt(Set::size));
+        List<App> results = new ArrayList<>();
+        Set<App> smallest = lists.get(0);
+        outer:
+        for (App app : smallest) {
+            for (int i = 1; i < lists.size(); i++)
+                if (!lists.get(i).contains(app)) continue outer;
+            // Every gram matching doesn't mean the grams are contiguous, so check the name itself
+            String name = indexedNames.get(app);
+            if (name != null && name.contains(normalized))
+                results.add(app);
+        }
+        results.sort(comparator());
+        return results;
+    }
+    
+    Comparator<App> comparator() {
+        return Comparator.<App>comparingInt(app -> app.getName().length())
+                .thenComparingLong(app -> order.getOrDefault(app, Long.MAX_VALUE));
+    }
+}
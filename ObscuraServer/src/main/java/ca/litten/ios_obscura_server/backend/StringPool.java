@@ -0,0 +1,21 @@
+package ca.litten.ios_obscura_server.backend;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// One shared copy of the values that repeat all over the catalog: version strings, build versions, developers, URL prefixes.
+// Only meant for low-cardinality values; the pool never shrinks.
+final class StringPool {
+    private static final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+    
+    private StringPool() {}
+    
+    static String intern(String value) {
+        if (value == null) return null;
+        String pooled = pool.putIfAbsent(value, value);
+        return (pooled == null) ? value : pooled;
+    }
+    
+    static int size() {
+        return pool.size();
+    }
+}
@@ -0,0 +1,99 @@
+package ca.litten.ios_obscura_server.backend;
+
+import java.util.*;
+
+class VersionIndex {
+    static class Entries {
+        private final App[] apps;
+        private final VersionKey[] keys;
+        
+        private Entries(App[] apps, VersionKey[] keys) {
+            this.apps = apps;
+            this.keys = keys;
+        }
+        
+        List<App> appsForVersion(VersionKey version) {
+            int count = upperBound(keys, keys.length, version);
+            return new ArrayList<>(Arrays.asList(apps).subList(0, count));
+        }
+        
+        int countForVersion(VersionKey version) {
+            return upperBound(keys, keys.length, version);
+        }
+    }
+    
+    private volatile Entries entries = new Entries(new App[0], new VersionKey[0]);
+    private final HashMap<App, VersionKey> placed = new HashMap<>();
+    
+    // Index of the first key that isn't supported by the given version, which is also the number of apps before it
+    private static int upperBound(VersionKey[] keys, int length, VersionKey version) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (App.isVersionLater(keys[mid], version)) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+    
+    synchronized void rebuild(Collection<App> apps) {
+        placed.clear();
+        App[] sorted = apps.toArray(new App[0]);
+        VersionKey[] keys = new VersionKey[sorted.length];
+        for (App app : sorted)
+            placed.put(app, app.getEarliestSupportedKey());
+        Arrays.sort(sorted, (o1, o2) -> placed.get(o1).compareTo(placed.get(o2)));
+        for (int i = 0; i < sorted.length; i++)
+            keys[i] = placed.get(sorted[i]);
+        entries = new Entries(sorted, keys);
+    }
+    
+    synchronized void place(App app) {
+        VersionKey key = app.getEarliestSupportedKey();
+        VersionKey oldKey = placed.put(app, key);
+        if (key.equals(oldKey)) return;
+        Entries current = entries;
+        App[] apps = current.apps;
+        VersionKey[] keys = current.keys;
+        int length = apps.length;
+        if (oldKey != null) {
+            int oldIndex = -1;
+            for (int i = upperBound(keys, length, oldKey) - 1; i >= 0 && keys[i].compareTo(oldKey) == 0; i--) {
+                if (apps[i] == app) {
+                    oldIndex = i;
+                    break;
+                }
+            }
+            if (oldIndex == -1) {
+                for (int i = 0; i < length; i++) {
+                    if (apps[i] == app) {
+                        oldIndex = i;
+                        break;
+                    }
+                }
+            }
+            if (oldIndex != -1) {
+                apps = apps.clone();
+                keys = keys.clone();
+                System.arraycopy(apps, oldIndex + 1, apps, oldIndex, length - oldIndex - 1);
+                System.arraycopy(keys, oldIndex + 1, keys, oldIndex, length - oldIndex - 1);
+                length--;
+            }
+        }
+        int index = upperBound(keys, length, key);
+        App[] newApps = new App[length + 1];
+        VersionKey[] newKeys = new VersionKey[length + 1];
+        System.arraycopy(apps, 0, newApps, 0, index);
+        System.arraycopy(keys, 0, newKeys, 0, index);
+        newApps[index] = app;
+        newKeys[index] = key;
+        System.arraycopy(apps, index, newApps, index + 1, length - index);
+        System.arraycopy(keys, index, newKeys, index + 1, length - index);
+        entries = new Entries(newApps, newKeys);
+    }
+    
+    Entries entries() {
+        return entries;
+    }
+}
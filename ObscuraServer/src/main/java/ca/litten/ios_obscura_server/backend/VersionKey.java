@@ -0,0 +1,114 @@
+package ca.litten.ios_obscura_server.backend;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// A version string parsed once, ordered exactly like App.isVersionLater used to order the raw strings.
+// Keys that compare as 0 aren't necessarily equal; "1.0" and "1" are the same version but different keys.
+public final class VersionKey implements Comparable<VersionKey> {
+    private static final int CACHE_LIMIT = 1 << 16;
+    private static final ConcurrentHashMap<String, VersionKey> cache = new ConcurrentHashMap<>();
+    private static final long NOT_PACKED = -1;
+    
+    private final String version;
+    private final int[] values;
+    private final boolean[] numeric; // null when every component is numeric
+    private final String[] parts; // null when every component is numeric and written the way Integer.toString would
+    private final long packed; // up to 4 small numeric components in one long, or NOT_PACKED
+    
+    private VersionKey(String version) {
+        this.version = version;
+        String[] split = version.split("\\.");
+        values = new int[split.length];
+        boolean[] numericParts = new boolean[split.length];
+        boolean allNumeric = true;
+        boolean canonical = true;
+        for (int i = 0; i < split.length; i++) {
+            try {
+                values[i] = Integer.parseInt(split[i]);
+                numericParts[i] = true;
+                if (canonical && !Integer.toString(values[i]).equals(split[i])) canonical = false;
+            } catch (NumberFormatException e) {
+                allNumeric = false;
+            }
+        }
+        numeric = allNumeric ? null : numericParts;
+        parts = (allNumeric && canonical) ? null : split;
+        packed = allNumeric ? pack(values) : NOT_PACKED;
+    }
+    
+    // 27 bits for the first component, 12 for each of the next three; missing components count as 0 like they always have
+    private static long pack(int[] values) {
+        if (values.length > 4) return NOT_PACKED;
+        long packed = 0;
+        for (int i = 0; i < 4; i++) {
+            int bits = (i == 0) ? 27 : 12;
+            int value = (i < values.length) ? values[i] : 0;
+            if (value < 0 || value >= (1 << bits)) return NOT_PACKED;
+            packed = (packed << bits) | value;
+        }
+        return packed;
+    }
+    
+    public static VersionKey of(String version) {
+        VersionKey key = cache.get(version);
+        if (key != null) return key;
+        key = new VersionKey(version);
+        if (cache.size() < CACHE_LIMIT) {
+            VersionKey existing = cache.putIfAbsent(version, key);
+            if (existing != null) return existing;
+        }
+        return key;
+    }
+    
+    public String getVersion() {
+        return version;
+    }
+    
+    private boolean isNumeric(int i) {
+        return numeric == null || numeric[i];
+    }
+    
+    private String part(int i) {
+        return (parts == null) ? Integer.toString(values[i]) : parts[i];
+    }
+    
+    @Override
+    public int compareTo(VersionKey other) {
+        if (packed != NOT_PACKED && other.packed != NOT_PACKED)
+            return Long.compare(packed, other.packed);
+        int length = Math.max(values.length, other.values.length);
+        for (int i = 0; i < length; i++) {
+            boolean has = i < values.length;
+            boolean otherHas = i < other.values.length;
+            if ((!has || isNumeric(i)) && (!otherHas || other.isNumeric(i))) {
+                int value = has ? values[i] : 0;
+                int otherValue = otherHas ? other.values[i] : 0;
+                if (value > otherValue) return 1;
+                if (value < otherValue) return -1;
+                continue;
+            }
+            // Non-numeric components compare as text, and running out of components decides it
+            if (!has || !otherHas)
+                return (values.length < other.values.length) ? -1 : 1;
+            int comp = part(i).compareTo(other.part(i));
+            if (comp < 0) return -1;
+            if (comp > 0) return 1;
+        }
+        return 0;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof VersionKey) && ((VersionKey) o).version.equals(version);
+    }
+    
+    @Override
+    public int hashCode() {
+        return version.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return version;
+    }
+}
@@ -0,0 +1,111 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import ca.litten.ios_obscura_server.backend.App;
+import ca.litten.ios_obscura_server.backend.AppList;
+import ca.litten.ios_obscura_server.backend.CatalogEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Markup for an app that every page listing it would otherwise build again, kept as UTF-8.
+// An entry remembers the name, developer and links it was made from and is rebuilt once the app no longer has those exact ones.
+class AppFragments {
+    private static final ConcurrentHashMap<String, AppFragments> cache = new ConcurrentHashMap<>();
+    
+    static {
+        AppList.addCatalogListener(events -> {
+            for (CatalogEvent event : events)
+                if (event.getType() == CatalogEvent.Type.CATALOG_RELOADED) cache.clear();
+        });
+    }
+    
+    private static class MirrorLabels {
+        private final App.VersionLink[] links;
+        private final byte[][] labels;
+        
+        private MirrorLabels(App.VersionLink[] links, byte[][] labels) {
+            this.links = links;
+            this.labels = labels;
+        }
+    }
+    
+    private final App app;
+    private final String name;
+    private final String developer;
+    private final byte[] tile;
+    private final byte[] absoluteTile;
+    private final byte[] header;
+    private final ConcurrentHashMap<String, byte[]> versionRows = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, MirrorLabels> mirrorLabels = new ConcurrentHashMap<>();
+    
+    private AppFragments(App app, String name, String developer) {
+        this.app = app;
+        this.name = name;
+        this.developer = developer;
+        String bundleID = app.getBundleID();
+        tile = tile(bundleID, name, "").getBytes(StandardCharsets.UTF_8);
+        absoluteTile = tile(bundleID, name, "/").getBytes(StandardCharsets.UTF_8);
+        header = ("<div><div style=\"height:57px;overflow:hidden\"><img loading=\"lazy\" style=\"float:left;height:57px;width:57px\" src=\"/getAppIcon/"
+                + bundleID + "\" onerror=\"this.onerror=null;this.src='/getProxiedAppIcon/"
+                + bundleID + "'\"><strong style=\"padding:.5em 0;line-height:57px\"><center>" + Server.cutStringTo(name, 20)
+                + "</center></strong></div></div><div><div>" + developer + "</div></div>").getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static String tile(String bundleID, String name, String root) {
+        return "<a style=\"height:77px\" href=\"" + root + "getAppVersions/" + bundleID
+                + "\"><div><div style=\"height:77px;overflow:hidden\"><img loading=\"lazy\" style=\"float:left;height:57px;width:57px\" src=\"" + root + "getAppIcon/"
+                + bundleID + "\" onerror=\"this.onerror=null;this.src='/getProxiedAppIcon/"
+                + bundleID + "'\"><center style=\"line-height:57px\">" + Server.cutStringTo(name, 15) + "</center></div></div></a>";
+    }
+    
+    static AppFragments of(App app) {
+        String name = app.getName();
+        String developer = app.getDeveloper();
+        AppFragments fragments = cache.get(app.getBundleID());
+        if (fragments != null && fragments.app == app && fragments.name == name && fragments.developer == developer)
+            return fragments;
+        fragments = new AppFragments(app, name, developer);
+        cache.put(app.getBundleID(), fragments);
+        return fragments;
+    }
+    
+    // The app's icon and name, linking to its versions, with links relative to the page for the homepage and the HTML sitemap
+    byte[] getTile() {
+        return tile;
+    }
+    
+    // The same with links from the root, for pages that aren't at the top level
+    byte[] getAbsoluteTile() {
+        return absoluteTile;
+    }
+    
+    // Icon, name and developer at the top of the app's own pages
+    byte[] getHeader() {
+        return header;
+    }
+    
+    byte[] getVersionRow(String version) {
+        return versionRows.computeIfAbsent(version, v -> ("<a href=\"/getAppVersionLinks/" + app.getBundleID() + "/" + v
+                + "\"><div><div>" + v + "</div></div></a>").getBytes(StandardCharsets.UTF_8));
+    }
+    
+    // "#1, archive.org, item, SSL" for each link; a version's links array is replaced whenever it changes
+    byte[][] getMirrorLabels(String version, App.VersionLink[] links) {
+        MirrorLabels cached = mirrorLabels.get(version);
+        if (cached != null && cached.links == links) return cached.labels;
+        byte[][] labels = new byte[links.length][];
+        for (int i = 0; i < links.length; i++) {
+            String url = links[i].getUrl();
+            String[] path = url.split("//")[1].split("/");
+            StringBuilder label = new StringBuilder();
+            label.append("#").append(i + 1).append(", ").append(path[0]);
+            if (path[0].contains("archive.org"))
+                label.append(", ").append(path[2]);
+            if (url.startsWith("https"))
+                label.append(", SSL");
+            labels[i] = label.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        mirrorLabels.put(version, new MirrorLabels(links, labels));
+        return labels;
+    }
+}
@@ -0,0 +1,167 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import ca.litten.ios_obscura_server.backend.App;
+import ca.litten.ios_obscura_server.backend.VersionKey;
+import com.sun.net.httpserver.Headers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Picks gzip or deflate from Accept-Encoding and compresses bodies for it.
+// Both are the same deflate stream in a different wrapper, so a body only ever has to be compressed once for either.
+final class ContentEncoding {
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+    // Anything smaller fits in a packet or two as it is
+    private static final int MIN_LENGTH = 1024;
+    
+    private final VersionKey minimumIOS;
+    
+    ContentEncoding(String minimumIOS) {
+        this.minimumIOS = VersionKey.of(minimumIOS);
+    }
+    
+    // A body along with its compressed forms, for pages that are sent many times over
+    static final class Body {
+        private final byte[] plain;
+        private final byte[] gzip;
+        private final byte[] deflate;
+        
+        Body(byte[] plain) {
+            this.plain = plain;
+            if (plain.length < MIN_LENGTH) {
+                gzip = null;
+                deflate = null;
+                return;
+            }
+            byte[] raw = compress(plain);
+            gzip = wrap(raw, plain, GZIP);
+            deflate = wrap(raw, plain, DEFLATE);
+        }
+        
+        long size() {
+            return plain.length + (gzip == null ? 0 : gzip.length + deflate.length);
+        }
+    }
+    
+    // Returns null when the body should go out as it is. Sets Vary either way, since the answer depends on both headers.
+    String negotiate(ServerExchange exchange) {
+        Headers incomingHeaders = exchange.getRequestHeaders();
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding, User-Agent");
+        // Old versions of iOS mishandle compressed responses, so they never get any
+        String userAgent = incomingHeaders.getFirst("User-Agent");
+        if (userAgent != null && (userAgent.contains("iPhone OS") || userAgent.contains("iPad"))) {
+            String[] split = userAgent.split("like Mac OS X")[0].split(" ");
+            if (!App.isVersionLater(minimumIOS, VersionKey.of(split[split.length - 1].replace("_", "."))))
+                return null;
+        }
+        List<String> accepted = incomingHeaders.get("Accept-Encoding");
+        if (accepted == null) return null;
+        float gzip = -1, deflate = -1, any = -1;
+        for (String header : accepted) {
+            for (String coding : header.split(",")) {
+                String[] params = coding.split(";");
+                float quality = 1;
+                for (int i = 1; i < params.length; i++) {
+                    String param = params[i].trim().toLowerCase();
+                    if (!param.startsWith("q=")) continue;
+                    try {
+                        quality = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+                switch (params[0].trim().toLowerCase()) {
+                    case "gzip":
+                    case "x-gzip":
+                        gzip = quality;
+                        break;
+                    case "deflate":
+                        deflate = quality;
+                        break;
+                    case "*":
+                        any = quality;
+                        break;
+                }
+            }
+        }
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+        if (gzip > 0 && gzip >= deflate) return GZIP;
+        if (deflate > 0) return DEFLATE;
+        return null;
+    }
+    
+    // Doesn't close the exchange, same as sendResponse
+    static void send(ServerExchange exchange, byte[] body, String encoding) throws IOException {
+        if (encoding != null && body.length >= MIN_LENGTH) {
+            body = wrap(compress(body), body, encoding);
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+        exchange.sendResponse(200, ByteBuffer.wrap(body));
+    }
+    
+    static void send(ServerExchange exchange, Body body, String encoding) throws IOException {
+        byte[] bytes = body.plain;
+        if (encoding != null && body.gzip != null) {
+            bytes = encoding.equals(GZIP) ? body.gzip : body.deflate;
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+        exchange.sendResponse(200, ByteBuffer.wrap(bytes));
+    }
+    
+    // A raw deflate stream, without the header and checksum either format puts around it
+    private static byte[] compress(byte[] plain) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(plain);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 8 + 64);
+        byte[] buf = new byte[65536];
+        while (!deflater.finished())
+            out.write(buf, 0, deflater.deflate(buf));
+        deflater.end();
+        return out.toByteArray();
+    }
+    
+    private static byte[] wrap(byte[] raw, byte[] plain, String encoding) {
+        boolean gzip = encoding.equals(GZIP);
+        byte[] out = new byte[raw.length + (gzip ? 18 : 6)];
+        int at;
+        if (gzip) {
+            // Magic, deflate, no flags, no timestamp, no extra flags, unknown OS
+            out[0] = (byte) 0x1f;
+            out[1] = (byte) 0x8b;
+            out[2] = 8;
+            out[9] = (byte) 0xff;
+            System.arraycopy(raw, 0, out, 10, raw.length);
+            at = 10 + raw.length;
+            CRC32 crc = new CRC32();
+            crc.update(plain, 0, plain.length);
+            at = putLittleEndian(out, at, crc.getValue());
+            putLittleEndian(out, at, plain.length);
+        } else {
+            // zlib header for a 32K window at the default level
+            out[0] = (byte) 0x78;
+            out[1] = (byte) 0x9c;
+            System.arraycopy(raw, 0, out, 2, raw.length);
+            at = 2 + raw.length;
+            Adler32 adler = new Adler32();
+            adler.update(plain, 0, plain.length);
+            long value = adler.getValue();
+            for (int shift = 24; shift >= 0; shift -= 8)
+                out[at++] = (byte) (value >>> shift);
+        }
+        return out;
+    }
+    
+    private static int putLittleEndian(byte[] out, int at, long value) {
+        for (int shift = 0; shift < 32; shift += 8)
+            out[at++] = (byte) (value >>> shift);
+        return at;
+    }
+}
@@ -0,0 +1,64 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Strong ETags for the pages rendered from the catalog. Those only change when the catalog moves to a new generation,
+// so a tag is the generation plus whatever about the request the page depends on, such as the app or the client's iOS version.
+// Generations start over with every run, so each tag also carries when this server started.
+final class EntityTags {
+    private static final String started = Long.toString(System.currentTimeMillis(), 36);
+    
+    private EntityTags() {}
+    
+    static String of(long generation, String... variant) {
+        StringBuilder tag = new StringBuilder("\"").append(started).append('-').append(Long.toString(generation, 36));
+        for (String part : variant) {
+            tag.append('-');
+            appendEscaped(tag, part);
+        }
+        return tag.append('"').toString();
+    }
+    
+    // A compressed body is a different representation of the page, so it needs a tag of its own
+    static String forEncoding(String tag, String encoding) {
+        if (encoding == null) return tag;
+        return tag.substring(0, tag.length() - 1) + "-" + encoding + "\"";
+    }
+    
+    // Parts go in as they are, since they pick the page and two of them must never end up with the same tag.
+    // Anything that isn't allowed inside the quotes, or could be mistaken for a separator, is percent-encoded as UTF-8.
+    private static void appendEscaped(StringBuilder tag, String part) {
+        for (byte b : part.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '_')
+                tag.append(c);
+            else
+                tag.append('%').append(Character.forDigit((c >> 4) & 0xF, 16)).append(Character.forDigit(c & 0xF, 16));
+        }
+    }
+    
+    // Answers with a 304 if the client already has this tag; meant to be called before the page is looked up or rendered
+    static boolean notModified(ServerExchange exchange, String tag) throws IOException {
+        List<String> conditions = exchange.getRequestHeaders().get("If-None-Match");
+        if (conditions == null || !matches(conditions, tag)) return false;
+        exchange.getResponseHeaders().set("ETag", tag);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
+    }
+    
+    // If-None-Match uses the weak comparison, so W/ in front of a tag is ignored
+    private static boolean matches(List<String> conditions, String tag) {
+        for (String condition : conditions) {
+            for (String candidate : condition.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) candidate = candidate.substring(2);
+                if (candidate.equals("*") || candidate.equals(tag)) return true;
+            }
+        }
+        return false;
+    }
+}
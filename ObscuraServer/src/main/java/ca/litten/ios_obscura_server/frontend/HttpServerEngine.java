@@ -0,0 +1,100 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.spi.HttpServerProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+// The JDK's built-in HttpServer
+class HttpServerEngine implements ServerEngine {
+    private static final HttpServerProvider provider = HttpServerProvider.provider();
+    
+    private final HttpServer server;
+    private final RequestExecutor executor;
+    
+    private static class Exchange implements ServerExchange {
+        private final HttpExchange exchange;
+        
+        private Exchange(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+        
+        @Override
+        public Headers getRequestHeaders() {
+            return exchange.getRequestHeaders();
+        }
+        
+        @Override
+        public Headers getResponseHeaders() {
+            return exchange.getResponseHeaders();
+        }
+        
+        @Override
+        public URI getRequestURI() {
+            return exchange.getRequestURI();
+        }
+        
+        @Override
+        public String getRequestMethod() {
+            return exchange.getRequestMethod();
+        }
+        
+        @Override
+        public void sendResponseHeaders(int code, long length) throws IOException {
+            exchange.sendResponseHeaders(code, length);
+        }
+        
+        @Override
+        public OutputStream getResponseBody() {
+            return exchange.getResponseBody();
+        }
+        
+        // HttpExchange only offers a stream, so the bytes get copied through it
+        @Override
+        public void sendResponse(int code, ByteBuffer body) throws IOException {
+            ByteBuffer data = body.duplicate();
+            exchange.sendResponseHeaders(code, data.remaining() == 0 ? -1 : data.remaining());
+            Channels.newChannel(exchange.getResponseBody()).write(data);
+        }
+        
+        @Override
+        public void close() {
+            exchange.close();
+        }
+    }
+    
+    HttpServerEngine(int port, RequestExecutor executor) throws IOException {
+        server = provider.createHttpServer(new InetSocketAddress(port), -1);
+        this.executor = executor;
+        if (executor != null)
+            server.setExecutor(executor);
+    }
+    
+    @Override
+    public void createContext(String path, RequestHandler handler) {
+        HttpContext context = server.createContext(path, exchange -> handler.handle(new Exchange(exchange)));
+        if (executor != null)
+            context.getFilters().add(executor.overloadFilter());
+    }
+    
+    @Override
+    public void start() {
+        server.start();
+    }
+    
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+    
+    void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,417 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// A single selector thread that does all the socket I/O; handlers run on the executor and hand their response back to it.
+// Responses go out with a gathering write, so a body passed to sendResponse (a mapped icon, a direct buffer)
+// reaches the socket without being copied into the heap first.
+class NioServerEngine implements ServerEngine {
+    private static final int INITIAL_BUFFER = 8192;
+    private static final int MAX_REQUEST_SIZE = 1 << 16;
+    private static final long IDLE_TIMEOUT = 60000;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Executor executor;
+    private final RequestExecutor requestExecutor;
+    private final ArrayList<String> paths = new ArrayList<>();
+    private final HashMap<String, RequestHandler> handlers = new HashMap<>();
+    private final ConcurrentLinkedQueue<Connection> responded = new ConcurrentLinkedQueue<>();
+    private final HashSet<Connection> connections = new HashSet<>();
+    private volatile boolean running = true;
+    
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER);
+        private ByteBuffer[] output = null;
+        private boolean keepAlive = false;
+        private boolean handling = false;
+        private long lastActive = System.currentTimeMillis();
+        
+        private Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+        
+        private void close() {
+            connections.remove(this);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+    
+    private class Exchange implements ServerExchange {
+        private final Connection connection;
+        private final String method;
+        private final URI uri;
+        private final boolean keepAlive;
+        private final boolean http10;
+        private final Headers requestHeaders;
+        private final Headers responseHeaders = new Headers();
+        private int code = -1;
+        private boolean noBody = false;
+        private ByteArrayOutputStream stream = null;
+        private ByteBuffer body = null;
+        private boolean closed = false;
+        
+        private Exchange(Connection connection, String method, URI uri, boolean keepAlive, boolean http10, Headers requestHeaders) {
+            this.connection = connection;
+            this.method = method;
+            this.uri = uri;
+            this.keepAlive = keepAlive;
+            this.http10 = http10;
+            this.requestHeaders = requestHeaders;
+        }
+        
+        @Override
+        public Headers getRequestHeaders() {
+            return requestHeaders;
+        }
+        
+        @Override
+        public Headers getResponseHeaders() {
+            return responseHeaders;
+        }
+        
+        @Override
+        public URI getRequestURI() {
+            return uri;
+        }
+        
+        @Override
+        public String getRequestMethod() {
+            return method;
+        }
+        
+        @Override
+        public void sendResponseHeaders(int code, long length) throws IOException {
+            if (this.code != -1) throw new IOException("Headers already sent");
+            this.code = code;
+            noBody = length == -1;
+        }
+        
+        // Buffered until close, since the length isn't known before then
+        @Override
+        public OutputStream getResponseBody() {
+            if (stream == null) stream = new ByteArrayOutputStream();
+            return stream;
+        }
+        
+        @Override
+        public void sendResponse(int code, ByteBuffer body) throws IOException {
+            sendResponseHeaders(code, body.remaining() == 0 ? -1 : body.remaining());
+            this.body = body.duplicate();
+        }
+        
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            if (code == -1) code = 500;
+            ByteBuffer data = body;
+            if (data == null) data = (stream == null || noBody) ? EMPTY : ByteBuffer.wrap(stream.toByteArray());
+            StringBuilder head = new StringBuilder(256);
+            head.append("HTTP/1.1 ").append(code).append(' ').append(reason(code)).append("\r\n");
+            head.append("Date: ").append(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC))).append("\r\n");
+            for (Map.Entry<String, List<String>> header : responseHeaders.entrySet())
+                for (String value : header.getValue())
+                    head.append(header.getKey()).append(": ").append(value).append("\r\n");
+            if (code >= 200 && code != 204 && code != 304)
+                head.append("Content-Length: ").append(data.remaining()).append("\r\n");
+            // HTTP/1.0 clients close the connection unless the response says it stays open
+            if (!keepAlive) head.append("Connection: close\r\n");
+            else if (http10) head.append("Connection: keep-alive\r\n");
+            head.append("\r\n");
+            ByteBuffer header = ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+            connection.keepAlive = keepAlive;
+            connection.output = method.equals("HEAD") ? new ByteBuffer[]{header} : new ByteBuffer[]{header, data};
+            responded.add(connection);
+            selector.wakeup();
+        }
+    }
+    
+    NioServerEngine(int port, RequestExecutor requestExecutor) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        this.requestExecutor = requestExecutor;
+        // Handlers block on building pages and on outbound requests, so they can never run on the selector thread
+        executor = (requestExecutor != null) ? requestExecutor : Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Request worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @Override
+    public void createContext(String path, RequestHandler handler) {
+        if (handlers.put(path, handler) == null) paths.add(path);
+        paths.sort(Comparator.comparingInt(String::length).reversed());
+    }
+    
+    @Override
+    public void start() throws IOException {
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        Thread thread = new Thread(this::run, "NIO server");
+        thread.start();
+    }
+    
+    int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+    
+    // Closes the listening socket and every connection once the selector thread wakes up
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+    
+    private static String reason(int code) {
+        switch (code) {
+            case 200: return "OK";
+            case 202: return "Accepted";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 304: return "Not Modified";
+            case 307: return "Temporary Redirect";
+            case 308: return "Permanent Redirect";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 413: return "Payload Too Large";
+            case 431: return "Request Header Fields Too Large";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 503: return "Service Unavailable";
+            default: return "";
+        }
+    }
+    
+    private void run() {
+        long lastSweep = System.currentTimeMillis();
+        while (running) {
+            try {
+                selector.select(1000);
+                Connection connection;
+                while ((connection = responded.poll()) != null) {
+                    connection.handling = false;
+                    if (!connection.channel.isOpen()) continue;
+                    try {
+                        write(connection);
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) read(connection);
+                            else if (key.isWritable()) write(connection);
+                        } catch (IOException e) {
+                            connection.close();
+                        }
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastSweep > 5000) {
+                    lastSweep = now;
+                    for (Connection open : new ArrayList<>(connections))
+                        if (!open.handling && now - open.lastActive > IDLE_TIMEOUT) open.close();
+                }
+            } catch (Throwable e) {
+                System.err.println(e);
+            }
+        }
+        for (Connection open : new ArrayList<>(connections))
+            open.close();
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connections.add(new Connection(channel));
+        }
+    }
+    
+    private void read(Connection connection) throws IOException {
+        if (!connection.input.hasRemaining()) {
+            if (connection.input.capacity() >= MAX_REQUEST_SIZE) {
+                reject(connection, 431);
+                return;
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(Math.min(connection.input.capacity() * 2, MAX_REQUEST_SIZE));
+            connection.input.flip();
+            bigger.put(connection.input);
+            connection.input = bigger;
+        }
+        int read = connection.channel.read(connection.input);
+        if (read == -1) {
+            connection.close();
+            return;
+        }
+        connection.lastActive = System.currentTimeMillis();
+        parse(connection);
+    }
+    
+    private static int headerEnd(ByteBuffer input) {
+        byte[] bytes = input.array();
+        for (int i = 3; i < input.position(); i++)
+            if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r')
+                return i + 1;
+        return -1;
+    }
+    
+    // Takes one complete request off the front of the input, if there is one, and hands it to its handler
+    private void parse(Connection connection) {
+        ByteBuffer input = connection.input;
+        int end = headerEnd(input);
+        if (end == -1) return;
+        String[] lines = new String(input.array(), 0, end - 4, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            reject(connection, 400);
+            return;
+        }
+        Headers headers = new Headers();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) continue;
+            headers.add(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+        }
+        if (headers.containsKey("Transfer-Encoding")) {
+            reject(connection, 501);
+            return;
+        }
+        long length = 0;
+        try {
+            if (headers.containsKey("Content-Length"))
+                length = Long.parseLong(headers.getFirst("Content-Length"));
+        } catch (NumberFormatException e) {
+            reject(connection, 400);
+            return;
+        }
+        if (length < 0 || end + length > MAX_REQUEST_SIZE) {
+            reject(connection, 413);
+            return;
+        }
+        if (input.position() < end + length) return; // None of the handlers read a body, but it has to be skipped
+        URI uri;
+        try {
+            uri = new URI(requestLine[1]);
+        } catch (URISyntaxException e) {
+            reject(connection, 400);
+            return;
+        }
+        String connectionHeader = headers.getFirst("Connection");
+        boolean http10 = !requestLine[2].equals("HTTP/1.1");
+        boolean keepAlive = http10 ? "keep-alive".equalsIgnoreCase(connectionHeader)
+                : !"close".equalsIgnoreCase(connectionHeader);
+        // Anything after this request was pipelined behind it and waits until the response is out
+        input.flip();
+        input.position((int) (end + length));
+        input.compact();
+        connection.handling = true;
+        connection.key.interestOps(0);
+        Exchange exchange = new Exchange(connection, requestLine[0], uri, keepAlive, http10, headers);
+        RequestHandler handler = handlerFor(uri.getRawPath());
+        try {
+            executor.execute(() -> handle(exchange, handler));
+        } catch (RejectedExecutionException e) {
+            // Too backed up to even answer with a Retry-After from a worker
+            reject(connection, 503);
+        }
+    }
+    
+    private RequestHandler handlerFor(String path) {
+        if (path == null) path = "/";
+        for (String prefix : paths)
+            if (path.startsWith(prefix)) return handlers.get(prefix);
+        return null;
+    }
+    
+    private void handle(Exchange exchange, RequestHandler handler) {
+        try {
+            if (requestExecutor != null && requestExecutor.overloaded()) {
+                exchange.getResponseHeaders().set("Retry-After", requestExecutor.getRetryAfter());
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                exchange.sendResponseHeaders(503, -1);
+            } else if (handler == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                handler.handle(exchange);
+            }
+        } catch (Throwable e) {
+            System.err.println(e);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    // For requests that never reach a handler; the connection is closed once the status is out
+    private void reject(Connection connection, int code) {
+        connection.handling = true;
+        connection.key.interestOps(0);
+        Exchange exchange = new Exchange(connection, "GET", null, false, false, new Headers());
+        exchange.code = code;
+        exchange.noBody = true;
+        exchange.close();
+    }
+    
+    private void write(Connection connection) throws IOException {
+        connection.channel.write(connection.output);
+        connection.lastActive = System.currentTimeMillis();
+        if (connection.output[connection.output.length - 1].hasRemaining()) {
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+        connection.output = null;
+        if (!connection.keepAlive) {
+            connection.close();
+            return;
+        }
+        connection.key.interestOps(SelectionKey.OP_READ);
+        parse(connection);
+    }
+}
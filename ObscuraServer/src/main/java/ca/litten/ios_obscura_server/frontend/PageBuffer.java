@@ -0,0 +1,34 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// A page assembled directly as UTF-8, so cached fragments are copied in as they are instead of being encoded again
+class PageBuffer {
+    private byte[] bytes = new byte[8192];
+    private int length = 0;
+    
+    private void ensureCapacity(int more) {
+        if (length + more > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+    }
+    
+    PageBuffer append(byte[] fragment) {
+        ensureCapacity(fragment.length);
+        System.arraycopy(fragment, 0, bytes, length, fragment.length);
+        length += fragment.length;
+        return this;
+    }
+    
+    PageBuffer append(String text) {
+        return append(String.valueOf(text).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    PageBuffer append(long number) {
+        return append(Long.toString(number));
+    }
+    
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+}
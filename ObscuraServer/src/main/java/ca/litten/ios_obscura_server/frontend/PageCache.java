@@ -0,0 +1,87 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+// Bodies of the pages that list the whole catalog, kept with their compressed forms for the generation they were rendered from.
+// Pages from older generations can't be asked for again, so they go as soon as a newer page is kept;
+// past that, the least recently used pages go first once the total size is over the limit.
+final class PageCache {
+    private static class Entry {
+        private final long generation;
+        private final FutureTask<ContentEncoding.Body> task;
+        private long size = 0;
+        
+        private Entry(long generation, FutureTask<ContentEncoding.Body> task) {
+            this.generation = generation;
+            this.task = task;
+        }
+    }
+    
+    private final LinkedHashMap<String, Entry> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private final long limit;
+    private long size = 0;
+    
+    PageCache(long limit) {
+        this.limit = limit;
+    }
+    
+    // Renders the page if it isn't kept yet. Requests for one that's still being rendered wait for it instead of rendering it again.
+    ContentEncoding.Body get(String page, String tag, long generation, Callable<byte[]> render) throws IOException {
+        String key = page + " " + tag;
+        Entry entry;
+        boolean rendering = false;
+        synchronized (this) {
+            entry = pages.get(key);
+            if (entry == null) {
+                entry = new Entry(generation, new FutureTask<>(() -> new ContentEncoding.Body(render.call())));
+                pages.put(key, entry);
+                rendering = true;
+            }
+        }
+        if (rendering) {
+            entry.task.run();
+            kept(key, entry);
+        }
+        try {
+            return entry.task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+    
+    private synchronized void kept(String key, Entry entry) {
+        if (pages.get(key) != entry) return;
+        ContentEncoding.Body body;
+        try {
+            body = entry.task.get();
+        } catch (Exception e) {
+            // Let the next request try again
+            pages.remove(key);
+            return;
+        }
+        entry.size = body.size();
+        size += entry.size;
+        Iterator<Entry> iterator = pages.values().iterator();
+        while (iterator.hasNext()) {
+            Entry other = iterator.next();
+            if (other != entry && (other.generation < entry.generation || (size > limit && other.task.isDone()))) {
+                size -= other.size;
+                iterator.remove();
+            }
+        }
+        if (size > limit) {
+            size -= entry.size;
+            pages.remove(key);
+        }
+    }
+}
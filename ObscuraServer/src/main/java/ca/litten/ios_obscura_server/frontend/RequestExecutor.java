@@ -0,0 +1,139 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+
+// Runs exchanges off the HttpServer dispatcher thread, on a bounded pool or on virtual threads.
+// Requests that can't be queued, or that waited in the queue past the deadline, are answered with a 503 instead of being handled.
+// Those still have to run somewhere to be answered. Not on the dispatcher: HttpServer hands over the exchange before reading
+// the request, so one client that stops halfway through its headers would stall every connection. They go to a few threads
+// of their own instead, and once those are backed up too the executor refuses the exchange, which makes HttpServer drop it.
+class RequestExecutor implements Executor {
+    private static final int REJECT_THREADS = 4;
+    private static final int REJECT_QUEUE = 256;
+    private static final ThreadLocal<Boolean> shed = new ThreadLocal<>();
+    private static final ThreadLocal<Long> queuedAt = new ThreadLocal<>();
+    
+    private final Executor executor;
+    private final Semaphore slots;
+    private final long deadline;
+    private final ThreadPoolExecutor rejecter;
+    
+    private RequestExecutor(Executor executor, int slots, long deadlineMillis) {
+        this.executor = executor;
+        rejecter = new ThreadPoolExecutor(REJECT_THREADS, REJECT_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(REJECT_QUEUE), runnable -> {
+            Thread thread = new Thread(runnable, "Request rejecter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rejecter.allowCoreThreadTimeOut(true);
+        this.slots = new Semaphore(slots);
+        deadline = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+    }
+    
+    // "dispatcher" keeps everything on the dispatcher thread, which is what HttpServer does without an executor
+    static RequestExecutor create(String mode, int threads, int queue, long deadlineMillis) {
+        switch (mode.toLowerCase()) {
+            case "virtual":
+                Executor virtual = virtualThreadExecutor();
+                if (virtual != null) return new RequestExecutor(virtual, threads + queue, deadlineMillis);
+                System.err.println("Virtual threads need Java 21 or newer, using a thread pool instead.");
+                return new RequestExecutor(createPool(threads), threads + queue, deadlineMillis);
+            case "pool":
+                return new RequestExecutor(createPool(threads), threads + queue, deadlineMillis);
+            default:
+                return null;
+        }
+    }
+    
+    private static ThreadPoolExecutor createPool(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "Request worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+    
+    // Looked up reflectively since the server is still built for Java 8
+    private static Executor virtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+    
+    @Override
+    public void execute(Runnable task) {
+        if (!slots.tryAcquire()) {
+            runShed(task);
+            return;
+        }
+        long queued = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                queuedAt.set(queued);
+                try {
+                    task.run();
+                } finally {
+                    queuedAt.remove();
+                    slots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            slots.release();
+            runShed(task);
+        }
+    }
+    
+    // Throws RejectedExecutionException when the rejecter is backed up as well
+    private void runShed(Runnable task) {
+        rejecter.execute(() -> {
+            shed.set(true);
+            try {
+                task.run();
+            } finally {
+                shed.remove();
+            }
+        });
+    }
+    
+    boolean overloaded() {
+        if (shed.get() != null) return true;
+        Long queued = queuedAt.get();
+        return queued != null && System.nanoTime() - queued > deadline;
+    }
+    
+    String getRetryAfter() {
+        return Long.toString(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(deadline)));
+    }
+    
+    // For HttpServer contexts, so that it runs before the handler on the thread the exchange was given to
+    Filter overloadFilter() {
+        return new Filter() {
+            @Override
+            public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+                if (!overloaded()) {
+                    chain.doFilter(exchange);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Retry-After", getRetryAfter());
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            }
+            
+            @Override
+            public String description() {
+                return "Answers 503 when requests are waiting too long";
+            }
+        };
+    }
+}
@@ -0,0 +1,7 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import java.io.IOException;
+
+interface RequestHandler {
+    void handle(ServerExchange exchange) throws IOException;
+}
@@ -3,38 +3,43 @@ package ca.litten.ios_obscura_server.frontend;
 import ca.litten.ios_obscura_server.Main;
 import ca.litten.ios_obscura_server.backend.App;
 import ca.litten.ios_obscura_server.backend.AppList;
+import ca.litten.ios_obscura_server.backend.Catalog;
+import ca.litten.ios_obscura_server.backend.CatalogColumns;
+import ca.litten.ios_obscura_server.backend.CatalogStats;
+import ca.litten.ios_obscura_server.backend.IconStore;
+import ca.litten.ios_obscura_server.backend.VersionKey;
+import ca.litten.ios_obscura_server.parser.Binary;
 import ca.litten.ios_obscura_server.parser.CPUarch;
 import com.dd.plist.NSArray;
 import com.dd.plist.NSDictionary;
 import com.sun.net.httpserver.Headers;
-import com.sun.net.httpserver.HttpServer;
-import com.sun.net.httpserver.spi.HttpServerProvider;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.*;
 import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class Server {
-    private final HttpServer server;
-    private static final HttpServerProvider provider = HttpServerProvider.provider();
+    private final ServerEngine server;
     private static final Random rand = new Random();
-    private static final byte[] searchIcon;
-    private static final byte[] searchIcon7;
-    private static final byte[] favicon;
-    private static final byte[] mainicon;
-    private static final byte[] icon32;
-    private static final byte[] icon16;
-    private static final byte[] iconMask7;
+    private static final ByteBuffer searchIcon;
+    private static final ByteBuffer searchIcon7;
+    private static final ByteBuffer favicon;
+    private static final ByteBuffer mainicon;
+    private static final ByteBuffer icon32;
+    private static final ByteBuffer icon16;
+    private static final ByteBuffer iconMask7;
     private static long lastReload = 0;
     public static boolean allowReload = false;
     private static String serverName = "localhost";
@@ -42,45 +47,24 @@ public class Server {
     private static String headerTag = "";
     private static int port;
     private static ErrorPageCreator errorPages;
+    private static String executorMode = "dispatcher";
+    private static int executorThreads;
+    private static int executorQueue;
+    private static long executorQueueDeadline;
+    private static String engine = "httpserver";
+    private static String compressionMinimumIOS = "5.0";
+    private static long pageCacheSize;
     
     static {
         try {
-            File file = new File("searchIcon.jpg");
-            FileInputStream search = new FileInputStream(file);
-            searchIcon = new byte[Math.toIntExact(file.length())];
-            search.read(searchIcon);
-            search.close();
-            file = new File("searchIcon7.jpg");
-            FileInputStream search7 = new FileInputStream(file);
-            searchIcon7 = new byte[Math.toIntExact(file.length())];
-            search7.read(searchIcon7);
-            search7.close();
-            file = new File("iconMask7.svg");
-            FileInputStream mask7 = new FileInputStream(file);
-            iconMask7 = new byte[Math.toIntExact(file.length())];
-            mask7.read(iconMask7);
-            mask7.close();
-            file = new File("favicon.ico");
-            FileInputStream fav = new FileInputStream(file);
-            favicon = new byte[Math.toIntExact(file.length())];
-            fav.read(favicon);
-            fav.close();
-            file = new File("icon.png");
-            FileInputStream icon = new FileInputStream(file);
-            mainicon = new byte[Math.toIntExact(file.length())];
-            icon.read(mainicon);
-            icon.close();
-            file = new File("icon16.png");
-            FileInputStream icon16f = new FileInputStream(file);
-            icon16 = new byte[Math.toIntExact(file.length())];
-            icon16f.read(icon16);
-            icon16f.close();
-            file = new File("icon32.png");
-            FileInputStream icon32f = new FileInputStream(file);
-            icon32 = new byte[Math.toIntExact(file.length())];
-            icon32f.read(icon32);
-            icon32f.close();
-            file = new File("config.json");
+            searchIcon = mapFile("searchIcon.jpg");
+            searchIcon7 = mapFile("searchIcon7.jpg");
+            iconMask7 = mapFile("iconMask7.svg");
+            favicon = mapFile("favicon.ico");
+            mainicon = mapFile("icon.png");
+            icon16 = mapFile("icon16.png");
+            icon32 = mapFile("icon32.png");
+            File file = new File("config.json");
             FileReader reader = new FileReader(file);
             StringBuilder out = new StringBuilder();
             char[] buf = new char[4096];
@@ -96,17 +80,38 @@ public class Server {
             headerTag = object.getString("header_tags");
             errorPages = new ErrorPageCreator(headerTag);
             port = object.getInt("port");
+            engine = object.optString("engine", "httpserver");
+            executorMode = object.optString("executor", "dispatcher");
+            executorThreads = object.optInt("executor_threads", Runtime.getRuntime().availableProcessors() * 4);
+            executorQueue = object.optInt("executor_queue", 256);
+            executorQueueDeadline = object.optLong("executor_queue_deadline_ms", 10000);
+            compressionMinimumIOS = object.optString("compression_min_ios", "5.0");
+            pageCacheSize = object.optLong("page_cache_mb", 256) << 20;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    // Mapped rather than read, so the NIO engine can send them without them ever being copied into the heap
+    private static ByteBuffer mapFile(String name) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(name).toPath())) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+    
     private static final String iOS7mask = "-webkit-mask-image:url(\"/getIconMask7\");-webkit-mask-size:cover;mask-image:url(\"/getIconMask7\");mask-size:cover;";
 
     public Server() throws IOException {
         lastReload = System.currentTimeMillis();
-        server = provider.createHttpServer(new InetSocketAddress(port), -1);
-        server.createContext("/").setHandler(exchange -> {
+        RequestExecutor executor = RequestExecutor.create(executorMode, executorThreads, executorQueue, executorQueueDeadline);
+        if (engine.equalsIgnoreCase("nio"))
+            server = new NioServerEngine(port, executor);
+        else
+            server = new HttpServerEngine(port, executor);
+        ContentEncoding encodings = new ContentEncoding(compressionMinimumIOS);
+        PageCache pages = new PageCache(pageCacheSize);
+        server.createContext("/", exchange -> {
+            Catalog catalog = AppList.getCatalog();
             Headers incomingHeaders = exchange.getRequestHeaders();
             Headers outgoingHeaders = exchange.getResponseHeaders();
             outgoingHeaders.set("Content-Type", "text/html; charset=utf-8");
@@ -118,6 +123,7 @@ public class Server {
                 String[] split2 = split1[0].split(" ");
                 iOS_ver = split2[split2.length - 1].replace("_", ".");
             }
+            VersionKey iOS_key = VersionKey.of(iOS_ver);
             if (!(exchange.getRequestURI().toString().equals("/") || exchange.getRequestURI().toString().isEmpty())) {
                 byte[] bytes = errorPages.general404.getBytes(StandardCharsets.UTF_8);
                 exchange.sendResponseHeaders(404, bytes.length);
@@ -125,10 +131,11 @@ public class Server {
                 exchange.close();
                 return;
             }
-            StringBuilder out = new StringBuilder();
+            String encoding = encodings.negotiate(exchange);
+            PageBuffer out = new PageBuffer();
             out.append(Templates.generateBasicHeader("iOS Obscura Locator", headerTag))
                     .append("<body class=\"pinstripe\"><panel><fieldset><div><div><center><strong>iPhoneOS Obscura Locator Homepage</strong></center></div></div><div><div><form action=\"searchPost\"><input type\"text\" name=\"search\" value=\"\" style=\"-webkit-appearance:none;border-bottom:1px solid #999\" placeholder=\"Search\"><button style=\"float:right;background:none\" type=\"submit\"><img style=\"height:18px;border-radius:50%\" src=\"/searchIcon\"></button></form></div></div></fieldset><label>Some Apps</label><fieldset>");
-            List<App> apps = AppList.listAppsThatSupportVersion(iOS_ver);
+            List<App> apps = catalog.listAppsThatSupportVersion(iOS_key);
             App app;
             int random;
             int s = apps.size();
@@ -137,23 +144,18 @@ public class Server {
             } else for (int i = 0; i < Math.min(20, s); i++) {
                 random = rand.nextInt(apps.size());
                 app = apps.remove(random);
-                out.append("<a style=\"height:77px\" href=\"getAppVersions/").append(app.getBundleID())
-                        .append("\"><div><div style=\"height:77px;overflow:hidden\"><img loading=\"lazy\" style=\"float:left;height:57px;width:57px\" src=\"getAppIcon/")
-                        .append(app.getBundleID()).append("\" onerror=\"this.onerror=null;this.src='/getProxiedAppIcon/")
-                        .append(app.getBundleID()).append("'\"><center style=\"line-height:57px\">")
-                        .append(cutStringTo(app.getName(), 15)).append("</center></div></div></a>");
+                out.append(AppFragments.of(app).getTile());
             }
             out.append("</fieldset><fieldset><a href=\"https://github.com/CatsLover2006/iOSobscuraServer\"><div><div>Check out the Github</div></div></a><a href=\"/stats\"><div><div>Server Stats</div></div></a>");
             if (!donateURL.isEmpty())
                 out.append("<a href=\"").append(donateURL).append("\"><div><div>Donate to this instance</div></div></a>");
             out.append("</fieldset></panel></body></html>");
-            byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = out.toByteArray();
             outgoingHeaders.set("Cache-Control", "no-cache");
-            exchange.sendResponseHeaders(200, bytes.length);
-            exchange.getResponseBody().write(bytes);
+            ContentEncoding.send(exchange, bytes, encoding);
             exchange.close();
         });
-        server.createContext("/getCSS").setHandler(exchange -> {
+        server.createContext("/getCSS", exchange -> {
             Headers incomingHeaders = exchange.getRequestHeaders();
             Headers outgoingHeaders = exchange.getResponseHeaders();
             String userAgent = incomingHeaders.get("user-agent").get(0);
@@ -190,7 +192,7 @@ public class Server {
             exchange.getResponseBody().write(bytes);
             exchange.close();
         });
-        server.createContext("/getHeader").setHandler(exchange -> {
+        server.createContext("/getHeader", exchange -> {
             StringBuilder out = new StringBuilder();
             Headers incomingHeaders = exchange.getRequestHeaders();
             Headers outgoingHeaders = exchange.getResponseHeaders();
@@ -210,14 +212,15 @@ public class Server {
             exchange.getResponseBody().write(bytes);
             exchange.close();
         });
-        server.createContext("/getProxiedAppIcon/").setHandler(exchange -> {
+        server.createContext("/getProxiedAppIcon/", exchange -> {
+            Catalog catalog = AppList.getCatalog();
             Headers outgoingHeaders = exchange.getResponseHeaders();
             String[] splitURI = URLDecoder.decode(exchange.getRequestURI().toString(), StandardCharsets.UTF_8.name()).split("/");
-            App app = AppList.getAppByBundleID(splitURI[2]);
+            App app = catalog.getAppByBundleID(splitURI[2]);
             outgoingHeaders.set("Cache-Control", "max-age=1800,immutable");
             if (app == null || app.getArtworkURL().isEmpty()) {
                 // Continue
-            } else if (app.getArtworkURL().startsWith("data")) {
+            } else if (IconStore.isGenerated(app.getArtworkURL())) {
                 outgoingHeaders.set("Location", "/getAppIcon/" + splitURI[2]);
                 exchange.sendResponseHeaders(308, 0);
                 exchange.close();
@@ -283,13 +286,24 @@ public class Server {
             exchange.sendResponseHeaders(308, 0);
             exchange.close();
         });
-        server.createContext("/getAppIcon/").setHandler(exchange -> {
+        server.createContext("/getAppIcon/", exchange -> {
+            Catalog catalog = AppList.getCatalog();
             Headers outgoingHeaders = exchange.getResponseHeaders();
             String[] splitURI = URLDecoder.decode(exchange.getRequestURI().toString(), StandardCharsets.UTF_8.name()).split("/");
-            App app = AppList.getAppByBundleID(splitURI[2]);
+            App app = catalog.getAppByBundleID(splitURI[2]);
             outgoingHeaders.set("Cache-Control", "max-age=1800,immutable");
             if (app == null || app.getArtworkURL().isEmpty()) {
                 outgoingHeaders.set("Location", "/icon");
+            } else if (IconStore.isStoredIcon(app.getArtworkURL())) {
+                IconStore.Icon icon = IconStore.get(app.getArtworkURL());
+                if (icon == null) {
+                    outgoingHeaders.set("Location", "/icon");
+                } else {
+                    outgoingHeaders.set("Content-Type", icon.getContentType());
+                    exchange.sendResponse(200, icon.getData());
+                    exchange.close();
+                    return;
+                }
             } else if (app.getArtworkURL().startsWith("data")) {
                 String[] relevantData = app.getArtworkURL().split(";");
                 outgoingHeaders.set("Content-Type", relevantData[0].split(":")[1]);
@@ -304,77 +318,78 @@ public class Server {
             exchange.sendResponseHeaders(308, 0);
             exchange.close();
         });
-        server.createContext("/trollapps").setHandler(exchange -> {
-            JSONObject root = new JSONObject();
-            String now = ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ISO_INSTANT);
-            root.put("name", "iPhoneOS Obscura");
-            root.put("website", "https://" + serverName);
-            root.put("iconURL", "https://" + serverName + "/icon");
-            JSONObject empty = new JSONObject();
-            JSONArray appsList = new JSONArray(AppList.searchApps("").parallelStream().map(app -> {
-                    if (app.getAllUrls().isEmpty()) return null;
-                    JSONObject appJSON = new JSONObject();
-                    appJSON.put("name", app.getName());
-                    appJSON.put("bundleIdentifier", app.getBundleID());
-                    appJSON.put("developerName", app.getDeveloper());
-                    appJSON.put("localizedDescription", "The app with bundle ID: " + app.getBundleID());
-                    appJSON.put("iconURL", "https://" + serverName + "/getAppIcon/" + app.getBundleID());
-                    appJSON.put("appPermissions", empty);
-                    ArrayList<JSONObject> reverseArr = new ArrayList<>();
-                    for (String version : app.getSupportedAppVersions("999999999")) {
-                        App.VersionLink[] versions = app.getLinksForVersion(version);
-                        for (int i = 0; i < versions.length; i++) {
-                            boolean skip = true;
-                            for (CPUarch arch : CPUarch.values()) {
-                                if (versions[i].getBinary().supportsArchitecture(arch)) {
-                                    if (!versions[i].getBinary().architectureEncrypted(arch)) {
-                                        skip = false;
-                                        break;
-                                    }
+        server.createContext("/trollapps", exchange -> {
+            Catalog catalog = AppList.getCatalog();
+            Headers outgoingHeaders = exchange.getResponseHeaders();
+            String encoding = encodings.negotiate(exchange);
+            // Rendered once per generation, so the date on every version is when this generation was first asked for
+            ContentEncoding.Body body = pages.get("/trollapps", EntityTags.of(catalog.getGeneration()), catalog.getGeneration(), () -> {
+                JSONObject root = new JSONObject();
+                String now = ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ISO_INSTANT);
+                root.put("name", "iPhoneOS Obscura");
+                root.put("website", "https://" + serverName);
+                root.put("iconURL", "https://" + serverName + "/icon");
+                JSONObject empty = new JSONObject();
+                CatalogColumns columns = catalog.getColumns();
+                int supportLimit = columns.supportLimit(VersionKey.of("999999999"));
+                JSONArray appsList = new JSONArray(IntStream.range(0, columns.getAppCount()).parallel().mapToObj(app -> {
+                        if (columns.countUrls(app) == 0) return null;
+                        String bundleID = columns.getBundleID(app);
+                        JSONObject appJSON = new JSONObject();
+                        appJSON.put("name", columns.getName(app));
+                        appJSON.put("bundleIdentifier", bundleID);
+                        appJSON.put("developerName", columns.getDeveloper(app));
+                        appJSON.put("localizedDescription", "The app with bundle ID: " + bundleID);
+                        appJSON.put("iconURL", "https://" + serverName + "/getAppIcon/" + bundleID);
+                        appJSON.put("appPermissions", empty);
+                        ArrayList<JSONObject> reverseArr = new ArrayList<>();
+                        for (int version = columns.getFirstVersion(app); version < columns.getVersionEnd(app); version++) {
+                            if (!columns.isSupported(version, supportLimit)) continue;
+                            String versionName = columns.getVersion(version);
+                            int first = columns.getFirstLink(version);
+                            for (int link = first; link < columns.getLinkEnd(version); link++) {
+                                Binary binary = columns.getBinary(link);
+                                if (binary == null || !binary.hasUnencryptedSlice()) continue;
+                                int i = link - first;
+                                JSONObject versionObject = new JSONObject();
+                                versionObject.put("version", versionName);
+                                versionObject.put("buildVersion", columns.getBuildVersion(link));
+                                versionObject.put("marketingVersion", versionName + " (" + columns.getBuildVersion(link) + ") #" + i);
+                                String url = columns.getUrl(link);
+                                String[] path = url.split("//")[1].split("/");
+                                StringBuilder description = new StringBuilder();
+                                description.append("#").append(i + 1).append(", ").append(path[0]);
+                                if (path[0].contains("archive.org"))
+                                    description.append(", ").append(path[2]);
+                                if (url.startsWith("https"))
+                                    description.append(", SSL");
+                                versionObject.put("downloadURL", url);
+                                versionObject.put("date", now);
+                                versionObject.put("localizedDescription", description.toString());
+                                versionObject.put("minOSVersion", columns.getSupportedVersion(version));
+                                if (!binary.has64BitSlice()) {
+                                    versionObject.put("maxOSVersion", "10.99.99");
                                 }
+                                versionObject.put("size", columns.getSize(link));
+                                reverseArr.add(0, versionObject);
                             }
-                            if (skip) continue;
-                            JSONObject versionObject = new JSONObject();
-                            versionObject.put("version", version);
-                            versionObject.put("buildVersion", versions[i].getBuildVersion());
-                            versionObject.put("marketingVersion", version + " (" + versions[i].getBuildVersion() + ") #" + i);
-                            String url = versions[i].getUrl();
-                            StringBuilder description = new StringBuilder();
-                            description.append("#").append(i + 1).append(", ").append(versions[i].getUrl().split("//")[1].split("/")[0]);
-                            if (url.split("//")[1].split("/")[0].contains("archive.org"))
-                                description.append(", ").append(versions[i].getUrl().split("//")[1].split("/")[2]);
-                            if (url.startsWith("https"))
-                                description.append(", SSL");
-                            versionObject.put("downloadURL", url);
-                            versionObject.put("date", now);
-                            versionObject.put("localizedDescription", description.toString());
-                            versionObject.put("minOSVersion", app.getCompatibleVersion(version));
-                            if (!versions[i].getBinary().supportsArchitecture(CPUarch.ARM64) &&
-                                    !versions[i].getBinary().supportsArchitecture(CPUarch.ARM64v8) &&
-                                    !versions[i].getBinary().supportsArchitecture(CPUarch.ARM64e) &&
-                                    !versions[i].getBinary().supportsArchitecture(CPUarch.ARM64e_legacy)) {
-                                versionObject.put("maxOSVersion", "10.99.99");
-                            }
-                            versionObject.put("size", versions[i].getSize());
-                            reverseArr.add(0, versionObject);
                         }
-                    }
-                    if (reverseArr.isEmpty()) return null;
-                    JSONArray versionArr = new JSONArray(reverseArr);
-                    appJSON.put("versions", versionArr);
-                    return appJSON;
-                }).filter(json -> json != null).collect(Collectors.toList()));
-            root.put("apps", appsList);
-            Headers outgoingHeaders = exchange.getResponseHeaders();
+                        if (reverseArr.isEmpty()) return null;
+                        JSONArray versionArr = new JSONArray(reverseArr);
+                        appJSON.put("versions", versionArr);
+                        return appJSON;
+                    }).filter(json -> json != null).collect(Collectors.toList()));
+                root.put("apps", appsList);
+                return root.toString().getBytes(StandardCharsets.UTF_8);
+            });
             outgoingHeaders.set("Content-Type", "application/json");
             outgoingHeaders.set("Cache-Control", "max-age=1800,immutable");
-            byte[] bytes = root.toString().getBytes(StandardCharsets.UTF_8);
-            exchange.sendResponseHeaders(200, bytes.length);
-            exchange.getResponseBody().write(bytes);
+            ContentEncoding.send(exchange, body, encoding);
             exchange.close();
         });
-        server.createContext("/getAppVersions/").setHandler(exchange -> {
-            StringBuilder out = new StringBuilder();
+        server.createContext("/getAppVersions/", exchange -> {
+            Catalog catalog = AppList.getCatalog();
+            PageBuffer out = new PageBuffer();
             Headers incomingHeaders = exchange.getRequestHeaders();
             Headers outgoingHeaders = exchange.getResponseHeaders();
             outgoingHeaders.set("Content-Type", "text/html; charset=utf-8");
@@ -386,8 +401,13 @@ public class Server {
                 String[] split2 = split1[0].split(" ");
                 iOS_ver = split2[split2.length - 1].replace("_", ".");
             }
+            VersionKey iOS_key = VersionKey.of(iOS_ver);
             String[] splitURI = URLDecoder.decode(exchange.getRequestURI().toString(), StandardCharsets.UTF_8.name()).split("/");
-            App app = AppList.getAppByBundleID(splitURI[2]);
+            String encoding = encodings.negotiate(exchange);
+            String tag = EntityTags.of(catalog.getGeneration(), splitURI[2], supportBucket(catalog, iOS_key));
+            tag = EntityTags.forEncoding(tag, encoding);
+            if (EntityTags.notModified(exchange, tag)) return;
+            App app = catalog.getAppByBundleID(splitURI[2]);
             if (app == null) {
                 byte[] bytes = errorPages.app404.getBytes(StandardCharsets.UTF_8);
                 exchange.sendResponseHeaders(404, bytes.length);
@@ -395,30 +415,28 @@ public class Server {
                 exchange.close();
                 return;
             }
+            AppFragments fragments = AppFragments.of(app);
             out.append(Templates.generateBasicHeader(app.getName(), headerTag))
-                    .append("<body class=\"pinstripe\"><panel><fieldset><div><div style=\"height:57px;overflow:hidden\"><img loading=\"lazy\" style=\"float:left;height:57px;width:57px\" src=\"/getAppIcon/")
-                    .append(app.getBundleID()).append("\" onerror=\"this.onerror=null;this.src='/getProxiedAppIcon/")
-                    .append(app.getBundleID()).append("'\"><strong style=\"padding:.5em 0;line-height:57px\"><center>").append(cutStringTo(app.getName(), 20))
-                    .append("</center></strong></div></div><div><div>").append(app.getDeveloper())
-                    .append("</div></div><a href=\"javascript:history.back()\"><div><div>Go Back</div></div></a></fieldset><label>Versions</label><fieldset>");
-            String[] versions = app.getSupportedAppVersions(iOS_ver);
+                    .append("<body class=\"pinstripe\"><panel><fieldset>").append(fragments.getHeader())
+                    .append("<a href=\"javascript:history.back()\"><div><div>Go Back</div></div></a></fieldset><label>Versions</label><fieldset>");
+            String[] versions = app.getSupportedAppVersions(iOS_key);
             if (versions.length == 0) {
                 out.append("<div><div>No Known Versions</div></div>");
             } else for (String version : versions) {
-                out.append("<a href=\"/getAppVersionLinks/").append(app.getBundleID()).append("/").append(version)
-                        .append("\"><div><div>").append(version).append("</div></div></a>");
+                out.append(fragments.getVersionRow(version));
             }
             out.append("</fieldset></panel></body></html>");
-            byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = out.toByteArray();
             outgoingHeaders.set("Cache-Control", "no-cache");
-            exchange.sendResponseHeaders(200, bytes.length);
-            exchange.getResponseBody().write(bytes);
+            outgoingHeaders.set("ETag", tag);
+            ContentEncoding.send(exchange, bytes, encoding);
             exchange.close();
         });
-        server.createContext("/generateInstallManifest/").setHandler(exchange -> {
+        server.createContext("/generateInstallManifest/", exchange -> {
+            Catalog catalog = AppList.getCatalog();
             Headers outgoingHeaders = exchange.getResponseHeaders();
             String[] splitURI = URLDecoder.decode(exchange.getRequestURI().toString(), StandardCharsets.UTF_8.name()).split("/");
-            App app = AppList.getAppByBundleID(splitURI[2]);
+            App app = catalog.getAppByBundleID(splitURI[2]);
             if (app == null) {
                 outgoingHeaders.set("Content-Type", "text/html");
                 exchange.sendResponseHeaders(404, errorPages.app404.length());
@@ -452,8 +470,9 @@ public class Server {
             exchange.getResponseBody().write(bytes);
             exchange.close();
         });
-        server.createContext("/getAppVersionLinks/").setHandler(exchange -> {
-            StringBuilder out = new StringBuilder();
+        server.createContext("/getAppVersionLinks/", exchange -> {
+            Catalog catalog = AppList.getCatalog();
+            PageBuffer out = new PageBuffer();
             Headers incomingHeaders = exchange.getRequestHeaders();
             Headers outgoingHeaders = exchange.getResponseHeaders();
             outgoingHeaders.set("Content-Type", "text/html; charset=utf-8");
@@ -465,8 +484,20 @@ public class Server {
                 String[] split2 = split1[0].split(" ");
                 iOS_ver = split2[split2.length - 1].replace("_", ".");
             }
+            VersionKey iOS_key = VersionKey.of(iOS_ver);
             String[] splitURI = URLDecoder.decode(exchange.getRequestURI().toString(), StandardCharsets.UTF_8.name()).split("/");
-            App app = AppList.getAppByBundleID(splitURI[2]);
+            String encoding = encodings.negotiate(exchange);
+            // Which install buttons show up is all the page takes from the client
+            boolean trollStore = iOS_connection && ((App.isVersionLater(VersionKey.of("14.0"), iOS_key) && App.isVersionLater(iOS_key, VersionKey.of("16.6.1")))
+                    || (iOS_ver.startsWith("17.0") && iOS_ver.endsWith(".0")));
+            boolean altStore = iOS_connection && App.isVersionLater(VersionKey.of("12.2"), iOS_key);
+            boolean sideStore = iOS_connection && App.isVersionLater(VersionKey.of("14.0"), iOS_key);
+            String client = iOS_connection ? "ios" + (trollStore ? "t" : "") + (altStore ? "a" : "") + (sideStore ? "s" : "")
+                    : userAgent.contains("Macintosh") ? "mac" : "other";
+            String tag = EntityTags.of(catalog.getGeneration(), splitURI[2], splitURI[3], client);
+            tag = EntityTags.forEncoding(tag, encoding);
+            if (EntityTags.notModified(exchange, tag)) return;
+            App app = catalog.getAppByBundleID(splitURI[2]);
             if (app == null) {
                 byte[] bytes = errorPages.app404.getBytes(StandardCharsets.UTF_8);
                 exchange.sendResponseHeaders(404, bytes.length);
@@ -474,33 +505,31 @@ public class Server {
                 exchange.close();
                 return;
             }
+            AppFragments fragments = AppFragments.of(app);
             out.append(Templates.generateBasicHeader(app.getName() + " " + splitURI[3], headerTag))
-                    .append("<body class=\"pinstripe\"><panel><fieldset><div><div style=\"height:57px;overflow:hidden\"><img loading=\"lazy\" style=\"float:left;height:57px;width:57px\" src=\"/getAppIcon/")
-                    .append(app.getBundleID()).append("\" onerror=\"this.onerror=null;this.src='/getProxiedAppIcon/")
-                    .append(app.getBundleID()).append("'\"><strong style=\"padding:.5em 0;line-height:57px\"><center>").append(cutStringTo(app.getName(), 20))
-                    .append("</center></strong></div></div><div><div>").append(app.getDeveloper())
-                    .append("</div></div><div><div style=\"overflow:auto\">Version ").append(splitURI[3])
+                    .append("<body class=\"pinstripe\"><panel><fieldset>").append(fragments.getHeader())
+                    .append("<div><div style=\"overflow:auto\">Version ").append(splitURI[3])
                     .append("<span style=\"float:right\">Requires iOS ").append(app.getCompatibleVersion(splitURI[3]))
                     .append("</span></div></div><a href=\"javascript:history.back()\"><div><div>Go Back</div></div></a></fieldset>");
             App.VersionLink[] versions = app.getLinksForVersion(splitURI[3]);
+            byte[][] mirrorLabels = fragments.getMirrorLabels(splitURI[3], versions);
             for (int i = 0; i < versions.length; i++) {
-                out.append("<label>#").append(i + 1).append(", ").append(versions[i].getUrl().split("//")[1].split("/")[0]);
-                if (versions[i].getUrl().split("//")[1].split("/")[0].contains("archive.org"))
-                    out.append(", ").append(versions[i].getUrl().split("//")[1].split("/")[2]);
-                if (versions[i].getUrl().startsWith("https"))
-                    out.append(", SSL");
+                out.append("<label>").append(mirrorLabels[i]);
                 if (versions[i].getBinary() != null) {
-                    HashMap<CPUarch, Boolean> supportMatrix = versions[i].getBinary().getEncryptionMatrix();
-                    if (!supportMatrix.keySet().isEmpty()) {
+                    Binary binary = versions[i].getBinary();
+                    List<CPUarch> architectures = binary.getArchitectures();
+                    if (!architectures.isEmpty()) {
                         out.append("<br>Supports: ");
-                        for (CPUarch arch : supportMatrix.keySet()) {
+                        boolean first = true;
+                        for (CPUarch arch : architectures) {
+                            if (!first) out.append(", ");
+                            first = false;
                             out.append(arch.name());
-                            if (supportMatrix.get(arch)) {
+                            if (binary.architectureEncrypted(arch)) {
                                 out.append(" (Encrypted)");
                             }
-                            out.append(", ");
                         }
-                        out.deleteCharAt(out.length() - 2);
+                        out.append(" ");
                     } else {
                         out.append("<br>Mach-O Error");
                     }
@@ -514,28 +543,27 @@ public class Server {
                     out.append("<a href=\"itms-services://?action=download-manifest&url=https://").append(serverName)
                             .append("/generateInstallManifest/").append(splitURI[2]).append("/").append(splitURI[3]).append("/").append(i)
                             .append("\"><div><div>iOS Direct Install <small style=\"font-size:x-small\">Requires AppSync</small></div></div></a>");
-                if (iOS_connection) {
-                    if ((App.isVersionLater("14.0", iOS_ver) && App.isVersionLater(iOS_ver, "16.6.1")) || (iOS_ver.startsWith("17.0") && iOS_ver.endsWith(".0")))
-                        out.append("<a href=\"apple-magnifier://install?url=").append(versions[i].getUrl())
-                                .append("\"><div><div>Install with TrollStore</div></div></a>");
-                    if (App.isVersionLater("12.2", iOS_ver))
-                        out.append("<a href=\"altstore://install?url=").append(versions[i].getUrl())
-                                .append("\"><div><div>Install with AltStore Classic</div></div></a>");
-                    if (App.isVersionLater("14.0", iOS_ver))
-                        out.append("<a href=\"sidestore://install?url=").append(versions[i].getUrl())
-                                .append("\"><div><div>Install with SideStore</div></div></a>");
-                }
+                if (trollStore)
+                    out.append("<a href=\"apple-magnifier://install?url=").append(versions[i].getUrl())
+                            .append("\"><div><div>Install with TrollStore</div></div></a>");
+                if (altStore)
+                    out.append("<a href=\"altstore://install?url=").append(versions[i].getUrl())
+                            .append("\"><div><div>Install with AltStore Classic</div></div></a>");
+                if (sideStore)
+                    out.append("<a href=\"sidestore://install?url=").append(versions[i].getUrl())
+                            .append("\"><div><div>Install with SideStore</div></div></a>");
                 out.append("</fieldset>");
             }
             out.append("</panel></body></html>");
-            byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = out.toByteArray();
             outgoingHeaders.set("Cache-Control", "no-cache");
-            exchange.sendResponseHeaders(200, bytes.length);
-            exchange.getResponseBody().write(bytes);
+            outgoingHeaders.set("ETag", tag);
+            ContentEncoding.send(exchange, bytes, encoding);
             exchange.close();
         });
 
-        server.createContext("/stats").setHandler(exchange -> {
+        server.createContext("/stats", exchange -> {
+            Catalog catalog = AppList.getCatalog();
             StringBuilder out = new StringBuilder();
             Headers incomingHeaders = exchange.getRequestHeaders();
             Headers outgoingHeaders = exchange.getResponseHeaders();
@@ -548,14 +576,22 @@ public class Server {
                 String[] split2 = split1[0].split(" ");
                 iOS_ver = split2[split2.length - 1].replace("_", ".");
             }
+            VersionKey iOS_key = VersionKey.of(iOS_ver);
+            String encoding = encodings.negotiate(exchange);
+            // The counts come from CatalogStats, which catches up with the catalog on its own, so the tag names both generations.
+            // Unlike the other pages this one prints the client's iOS version, so that has to be in the tag as it is.
+            CatalogStats stats = AppList.getStats();
+            String client = iOS_connection ? "ios " + iOS_ver : userAgent.contains("Macintosh") ? "mac" : "other";
+            String tag = EntityTags.of(catalog.getGeneration(), Long.toString(stats.getGeneration(), 36), client);
+            tag = EntityTags.forEncoding(tag, encoding);
+            if (EntityTags.notModified(exchange, tag)) return;
             out.append(Templates.generateBasicHeader("Server Stats", headerTag))
                     .append("<body class=\"pinstripe\"><panel><fieldset><div><div><center><strong>Server Stats</strong></center></div></div><div><div><form action=\"searchPost\"><input type\"text\" name=\"search\" value=\"\" style=\"-webkit-appearance:none;border-bottom:1px solid #999\" placeholder=\"Search\"><button style=\"float:right;background:none\" type=\"submit\"><img style=\"height:18px;border-radius:50%\" src=\"/searchIcon\"></button></form></div></div><a href=\"/\"><div><div>Return to Homepage</div></div></a></fieldset><label>Stats</label><fieldset>");
-            List<App> apps = AppList.searchApps("");
-            out.append("<div><div style=\"overflow:auto\">App Count<span style=\"float:right\">").append(apps.size())
+            out.append("<div><div style=\"overflow:auto\">App Count<span style=\"float:right\">").append(catalog.size())
                     .append("</span></div></div><div><div style=\"overflow:auto\">Version Count<span style=\"float:right\">")
-                    .append(apps.parallelStream().mapToLong(app -> app.getSupportedAppVersions("99999999").length).sum())
+                    .append(stats.countVersionsSupporting(VersionKey.of("99999999")))
                     .append("</span></div></div><div><div style=\"overflow:auto\">URL Count<span style=\"float:right\">")
-                    .append(apps.parallelStream().mapToLong(app -> app.getAllUrls().size()).sum())
+                    .append(stats.getUrlCount())
                     .append("</span></div></div></fieldset><label>Your Device</label><fieldset><div><div style=\"overflow:auto\">iOS Device?<span style=\"float:right\">")
                     .append(iOS_connection ? "Yes" : "No").append("</span></div></div>");
             if (iOS_connection) out.append("<div><div style=\"overflow:auto\">iOS Version<span style=\"float:right\">")
@@ -563,14 +599,12 @@ public class Server {
             else out.append("<div><div style=\"overflow:auto\">macOS Device?<span style=\"float:right\">")
                     .append(userAgent.contains("Macintosh") ? "Yes" : "No").append("</span></div></div>");
             try {
-                String final_iOS_ver = iOS_ver;
-                List<App> appsForDevice = AppList.listAppsThatSupportVersion(iOS_ver);
                 StringBuilder temp = new StringBuilder();
-                temp.append("<div><div style=\"overflow:auto\">Searchable App Count<span style=\"float:right\">").append(appsForDevice.size())
+                temp.append("<div><div style=\"overflow:auto\">Searchable App Count<span style=\"float:right\">").append(catalog.countAppsThatSupportVersion(iOS_key))
                         .append("</span></div></div><div><div style=\"overflow:auto\">Searchable Version Count<span style=\"float:right\">")
-                        .append(apps.parallelStream().mapToLong(app -> app.getSupportedAppVersions(final_iOS_ver).length).sum())
+                        .append(stats.countVersionsSupporting(iOS_key))
                         .append("</span></div></div><div><div style=\"overflow:auto\">Searchable URL Count<span style=\"float:right\">")
-                        .append(apps.parallelStream().mapToLong(app -> app.getAllUrlsForVersion(final_iOS_ver).size()).sum())
+                        .append(stats.countUrlsSupporting(iOS_key))
                         .append("</span></div></div>");
                 out.append(temp);
             } catch (Exception e) {
@@ -580,12 +614,12 @@ public class Server {
             out.append("</fieldset></panel></body></html>");
             byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
             outgoingHeaders.set("Cache-Control", "no-cache");
-            exchange.sendResponseHeaders(200, bytes.length);
-            exchange.getResponseBody().write(bytes);
+            outgoingHeaders.set("ETag", tag);
+            ContentEncoding.send(exchange, bytes, encoding);
             exchange.close();
         });
-        server.createContext("/htmlSitemap").setHandler(exchange -> {
-            StringBuilder out = new StringBuilder();
+        server.createContext("/htmlSitemap", exchange -> {
+            Catalog catalog = AppList.getCatalog();
             Headers incomingHeaders = exchange.getRequestHeaders();
             Headers outgoingHeaders = exchange.getResponseHeaders();
             outgoingHeaders.set("Content-Type", "text/html; charset=utf-8");
@@ -597,45 +631,60 @@ public class Server {
                 String[] split2 = split1[0].split(" ");
                 iOS_ver = split2[split2.length - 1].replace("_", ".");
             }
-            out.append(Templates.generateBasicHeader("HTML Sitemap", headerTag))
-                    .append("<body class=\"pinstripe\"><panel><fieldset><div><div><strong>HTML Sitemap</strong></div></div>");
-            out.append("<a href=\"https://").append(serverName).append("/\"><div><div>Homepage</div></div></a></fieldset>");
-            for (App app : AppList.searchApps("", iOS_ver)) {
-                out.append("<label>").append(app.getBundleID()).append("</label><fieldset><a style=\"height:77px\" href=\"getAppVersions/")
-                        .append(app.getBundleID()).append("\"><div><div style=\"height:77px;overflow:hidden\"><img loading=\"lazy\" style=\"float:left;height:57px;width:57px\" src=\"getAppIcon/")
-                        .append(app.getBundleID()).append("\" onerror=\"this.onerror=null;this.src='/getProxiedAppIcon/")
-                        .append(app.getBundleID()).append("'\"><center style=\"line-height:57px\">").append(cutStringTo(app.getName(), 15))
-                        .append("</center></div></div></a>");
-                for (String version : app.getSupportedAppVersions(iOS_ver))
-                    out.append("<a href=\"/getAppVersionLinks/").append(app.getBundleID()).append("/").append(version)
-                            .append("\"><div><div>").append(version).append("</div></div></a>");
-                out.append("</fieldset>");
-            }
-            out.append("</panel></body></html>");
-            byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+            VersionKey iOS_key = VersionKey.of(iOS_ver);
+            String encoding = encodings.negotiate(exchange);
+            String tag = EntityTags.of(catalog.getGeneration(), supportBucket(catalog, iOS_key));
+            String sentTag = EntityTags.forEncoding(tag, encoding);
+            if (EntityTags.notModified(exchange, sentTag)) return;
+            ContentEncoding.Body body = pages.get("/htmlSitemap", tag, catalog.getGeneration(), () -> {
+                PageBuffer out = new PageBuffer();
+                out.append(Templates.generateBasicHeader("HTML Sitemap", headerTag))
+                        .append("<body class=\"pinstripe\"><panel><fieldset><div><div><strong>HTML Sitemap</strong></div></div>");
+                out.append("<a href=\"https://").append(serverName).append("/\"><div><div>Homepage</div></div></a></fieldset>");
+                for (App app : catalog.searchApps("", iOS_key)) {
+                    AppFragments fragments = AppFragments.of(app);
+                    out.append("<label>").append(app.getBundleID()).append("</label><fieldset>").append(fragments.getTile());
+                    for (String version : app.getSupportedAppVersions(iOS_key))
+                        out.append(fragments.getVersionRow(version));
+                    out.append("</fieldset>");
+                }
+                out.append("</panel></body></html>");
+                return out.toByteArray();
+            });
             outgoingHeaders.set("Cache-Control", "no-cache");
-            exchange.sendResponseHeaders(200, bytes.length);
-            exchange.getResponseBody().write(bytes);
+            outgoingHeaders.set("ETag", sentTag);
+            ContentEncoding.send(exchange, body, encoding);
             exchange.close();
         });
-        server.createContext("/sitemap").setHandler(exchange -> {
-            StringBuilder out = new StringBuilder();
+        server.createContext("/sitemap", exchange -> {
+            Catalog catalog = AppList.getCatalog();
             Headers outgoingHeaders = exchange.getResponseHeaders();
-            out.append("https://").append(serverName).append("/\n");
+            String encoding = encodings.negotiate(exchange);
+            String tag = EntityTags.of(catalog.getGeneration());
+            String sentTag = EntityTags.forEncoding(tag, encoding);
+            if (EntityTags.notModified(exchange, sentTag)) return;
             outgoingHeaders.set("Content-Type", "text/plain");
-            for (App app : AppList.searchApps("")) {
-                out.append("https://").append(serverName).append("/getAppVersions/").append(app.getBundleID()).append("\n");
-                for (String version : app.getSupportedAppVersions("99999999"))
-                    out.append("https://").append(serverName).append("/getAppVersionLinks/").append(app.getBundleID())
-                            .append("/").append(version).append("\n");
-            }
-            byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+            ContentEncoding.Body body = pages.get("/sitemap", tag, catalog.getGeneration(), () -> {
+                StringBuilder out = new StringBuilder();
+                out.append("https://").append(serverName).append("/\n");
+                CatalogColumns columns = catalog.getColumns();
+                int supportLimit = columns.supportLimit(VersionKey.of("99999999"));
+                for (int app = 0; app < columns.getAppCount(); app++) {
+                    String bundleID = columns.getBundleID(app);
+                    out.append("https://").append(serverName).append("/getAppVersions/").append(bundleID).append("\n");
+                    for (int version = columns.getFirstVersion(app); version < columns.getVersionEnd(app); version++)
+                        if (columns.isSupported(version, supportLimit))
+                            out.append("https://").append(serverName).append("/getAppVersionLinks/").append(bundleID)
+                                    .append("/").append(columns.getVersion(version)).append("\n");
+                }
+                return out.toString().getBytes(StandardCharsets.UTF_8);
+            });
             outgoingHeaders.set("Cache-Control", "no-cache");
-            exchange.sendResponseHeaders(200, bytes.length);
-            exchange.getResponseBody().write(bytes);
+            outgoingHeaders.set("ETag", sentTag);
+            ContentEncoding.send(exchange, body, encoding);
             exchange.close();
         });
-        server.createContext("/searchPost").setHandler(exchange -> {
+        server.createContext("/searchPost", exchange -> {
             Headers outgoingHeaders = exchange.getResponseHeaders();
             String[] splitURI = URLDecoder.decode(exchange.getRequestURI().toString(), StandardCharsets.UTF_8.name()).split("\\?");
             outgoingHeaders.set("Location", "/search/" + splitURI[1].substring(7));
@@ -643,8 +692,9 @@ public class Server {
             exchange.sendResponseHeaders(308, 0);
             exchange.close();
         });
-        server.createContext("/search").setHandler(exchange -> {
-            StringBuilder out = new StringBuilder();
+        server.createContext("/search", exchange -> {
+            Catalog catalog = AppList.getCatalog();
+            PageBuffer out = new PageBuffer();
             Headers incomingHeaders = exchange.getRequestHeaders();
             Headers outgoingHeaders = exchange.getResponseHeaders();
             outgoingHeaders.set("Content-Type", "text/html; charset=utf-8");
@@ -656,6 +706,7 @@ public class Server {
                 String[] split2 = split1[0].split(" ");
                 iOS_ver = split2[split2.length - 1].replace("_", ".");
             }
+            VersionKey iOS_key = VersionKey.of(iOS_ver);
             outgoingHeaders.set("Content-Type", "text/html; charset=utf-8");
             String[] splitURI = URLDecoder.decode(exchange.getRequestURI().toString(), StandardCharsets.UTF_8.name()).split("/");
             String query;
@@ -664,13 +715,17 @@ public class Server {
             } catch (IndexOutOfBoundsException e) {
                 query = "";
             }
+            String encoding = encodings.negotiate(exchange);
+            String tag = EntityTags.of(catalog.getGeneration(), query, supportBucket(catalog, iOS_key));
+            tag = EntityTags.forEncoding(tag, encoding);
+            if (EntityTags.notModified(exchange, tag)) return;
             out.append(Templates.generateBasicHeader("Search: " + query, headerTag))
                     .append("<body class=\"pinstripe\"><panel><fieldset><div><div><center><strong>Search iPhoneOS Obscura</strong></center></div></div>")
                     .append("<div><div><form action=\"/searchPost\"><input type\"text\" name=\"search\" value=\"").append(query)
                     .append("\" style=\"-webkit-appearance:none;border-bottom:1px solid #999\" placeholder=\"Search\"><button style=\"float:right;background:none\" type=\"submit\"><img style=\"height:18px;border-radius:50%\" src=\"/searchIcon\"></button></form></div></div><a href=\"javascript:history.back()\"><div><div>Go Back</div></div></a></fieldset>");
             if (!query.isEmpty()) {
                 out.append("<label>Search Results</label><fieldset>");
-                List<App> apps = AppList.searchApps(query, iOS_ver);
+                List<App> apps = catalog.searchApps(query, iOS_key);
                 if (apps.isEmpty()) {
                     out.append("<div><div>Couldn't find anything!</div></div><div><div>Make sure you've typed everything correctly, or try shortening your query.</div></div>");
                 } else {
@@ -678,23 +733,19 @@ public class Server {
                     int s = apps.size();
                     for (int i = 0; i < Math.min(20, s); i++) {
                         app = apps.remove(0);
-                        out.append("<a style=\"height:77px\" href=\"/getAppVersions/").append(app.getBundleID())
-                                .append("\"><div><div style=\"height:77px;overflow:hidden\"><img loading=\"lazy\" style=\"float:left;height:57px;width:57px\" src=\"/getAppIcon/")
-                                .append(app.getBundleID()).append("\" onerror=\"this.onerror=null;this.src='/getProxiedAppIcon/")
-                                .append(app.getBundleID()).append("'\"><center style=\"line-height:57px\">").append(cutStringTo(app.getName(), 15))
-                                .append("</center></div></div></a>");
+                        out.append(AppFragments.of(app).getAbsoluteTile());
                     }
                 }
                 out.append("</fieldset>");
             }
             out.append("<fieldset><a href=\"/\"><div><div>Return to Homepage</div></div></a></fieldset></panel></body></html>");
-            byte[] bytes = out.toString().getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = out.toByteArray();
             outgoingHeaders.set("Cache-Control", "no-cache");
-            exchange.sendResponseHeaders(200, bytes.length);
-            exchange.getResponseBody().write(bytes);
+            outgoingHeaders.set("ETag", tag);
+            ContentEncoding.send(exchange, bytes, encoding);
             exchange.close();
         });
-        server.createContext("/searchIcon").setHandler(exchange -> {
+        server.createContext("/searchIcon", exchange -> {
             Headers outgoingHeaders = exchange.getResponseHeaders();
             Headers incomingHeaders = exchange.getRequestHeaders();
             String userAgent = incomingHeaders.get("user-agent").get(0);
@@ -715,57 +766,53 @@ public class Server {
             }
             outgoingHeaders.set("Content-Type", "image/jpeg");
             outgoingHeaders.set("Cache-Control", "max-age=172800,immutable");
-            exchange.sendResponseHeaders(200, (modernOS ? searchIcon7 : searchIcon).length);
-            exchange.getResponseBody().write(modernOS ? searchIcon7 : searchIcon);
+            exchange.sendResponse(200, modernOS ? searchIcon7 : searchIcon);
             exchange.close();
         });
-        server.createContext("/icon").setHandler(exchange -> {
+        server.createContext("/icon", exchange -> {
             Headers outgoingHeaders = exchange.getResponseHeaders();
             outgoingHeaders.set("Content-Type", "image/png");
             outgoingHeaders.set("Cache-Control", "max-age=172800,immutable");
-            exchange.sendResponseHeaders(200, mainicon.length);
-            exchange.getResponseBody().write(mainicon);
+            exchange.sendResponse(200, mainicon);
             exchange.close();
         });
-        server.createContext("/icon32").setHandler(exchange -> {
+        server.createContext("/icon32", exchange -> {
             Headers outgoingHeaders = exchange.getResponseHeaders();
             outgoingHeaders.set("Content-Type", "image/png");
             outgoingHeaders.set("Cache-Control", "max-age=172800,immutable");
-            exchange.sendResponseHeaders(200, icon32.length);
-            exchange.getResponseBody().write(icon32);
+            exchange.sendResponse(200, icon32);
             exchange.close();
         });
-        server.createContext("/icon16").setHandler(exchange -> {
+        server.createContext("/icon16", exchange -> {
             Headers outgoingHeaders = exchange.getResponseHeaders();
             outgoingHeaders.set("Content-Type", "image/png");
             outgoingHeaders.set("Cache-Control", "max-age=172800,immutable");
-            exchange.sendResponseHeaders(200, icon16.length);
-            exchange.getResponseBody().write(icon16);
+            exchange.sendResponse(200, icon16);
             exchange.close();
         });
-        server.createContext("/favicon.ico").setHandler(exchange -> {
+        server.createContext("/favicon.ico", exchange -> {
             Headers outgoingHeaders = exchange.getResponseHeaders();
             outgoingHeaders.set("Content-Type", "image/vnd.microsoft.icon");
             outgoingHeaders.set("Cache-Control", "max-age=172800,immutable");
-            exchange.sendResponseHeaders(200, favicon.length);
-            exchange.getResponseBody().write(favicon);
+            exchange.sendResponse(200, favicon);
             exchange.close();
         });
-        server.createContext("/getIconMask7").setHandler(exchange -> {
+        server.createContext("/getIconMask7", exchange -> {
             Headers outgoingHeaders = exchange.getResponseHeaders();
             outgoingHeaders.set("Content-Type", "image/svg+xml");
             outgoingHeaders.set("Cache-Control", "max-age=172800,immutable");
-            exchange.sendResponseHeaders(200, iconMask7.length);
-            exchange.getResponseBody().write(iconMask7);
+            exchange.sendResponse(200, iconMask7);
             exchange.close();
         });
-        server.createContext("/reload").setHandler(exchange -> {
+        server.createContext("/reload", exchange -> {
             if (!allowReload || (lastReload + 1000 * 60 * 5) > System.currentTimeMillis()) {
                 exchange.sendResponseHeaders(202, 0);
                 exchange.close();
                 return;
             }
             AppList.loadAppDatabaseFile(Main.databaseLocation);
+            if (Main.journalLocation != null)
+                AppList.loadJournal(Main.journalLocation);
             exchange.getResponseHeaders().set("Cache-Control", "no-cache");
             exchange.sendResponseHeaders(200, 0);
             exchange.close();
@@ -773,11 +820,17 @@ public class Server {
         });
     }
     
-    public void startServer() {
+    public void startServer() throws IOException {
         server.start();
     }
     
-    private String cutStringTo(String str, int len) {
+    // Every iOS version between the same two minimum versions in the catalog is shown the same apps and versions,
+    // so pages that only differ by what's supported are tagged and kept by this rather than by the version itself
+    private static String supportBucket(Catalog catalog, VersionKey iOS_key) {
+        return Integer.toString(catalog.getColumns().supportLimit(iOS_key), 36);
+    }
+    
+    static String cutStringTo(String str, int len) {
         str = str.trim();
         if (str.length() < len) {
             return str;
@@ -0,0 +1,10 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import java.io.IOException;
+
+// Accepts connections and hands requests to the handler registered for the longest matching path prefix
+interface ServerEngine {
+    void createContext(String path, RequestHandler handler);
+    
+    void start() throws IOException;
+}
@@ -0,0 +1,31 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+// One request and its response, as the handlers in Server see it, independent of the engine serving it.
+// Mirrors the parts of HttpExchange the handlers use, so they read the same on either engine.
+interface ServerExchange {
+    Headers getRequestHeaders();
+    
+    Headers getResponseHeaders();
+    
+    URI getRequestURI();
+    
+    String getRequestMethod();
+    
+    // Same meaning as in HttpExchange: a length of -1 means no body, 0 means a body of unknown length
+    void sendResponseHeaders(int code, long length) throws IOException;
+    
+    OutputStream getResponseBody();
+    
+    // Sends the buffer's remaining bytes as the whole body without changing its position.
+    // Engines that can write it to the socket as it is, instead of copying it through a stream, do so.
+    void sendResponse(int code, ByteBuffer body) throws IOException;
+    
+    void close();
+}
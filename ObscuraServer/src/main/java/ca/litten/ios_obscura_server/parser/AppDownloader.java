@@ -2,6 +2,7 @@ package ca.litten.ios_obscura_server.parser;
 
 import ca.litten.ios_obscura_server.backend.App;
 import ca.litten.ios_obscura_server.backend.AppList;
+import ca.litten.ios_obscura_server.backend.IconStore;
 import com.dd.plist.BinaryPropertyListParser;
 import com.dd.plist.NSArray;
 import com.dd.plist.NSDictionary;
@@ -20,7 +21,6 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -391,7 +391,7 @@ public class AppDownloader {
                         jpgWriter.write(null, new IIOImage(image, null, null), jpgWriteParam);
                         jpgWriter.dispose();
                         byte[] bytes = out.toByteArray();
-                        artwork = "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(bytes);
+                        artwork = IconStore.artworkFor("image/jpeg", bytes);
                     } catch (Exception e) {
                         System.err.println("Dynamic-quality JPEG generation failed, moving to static-quality JPEG...");
                     }
@@ -412,7 +412,7 @@ public class AppDownloader {
                         }
                         ImageIO.write(image, "jpg", new MemoryCacheImageOutputStream(out));
                         byte[] bytes = out.toByteArray();
-                        artwork = "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(bytes);
+                        artwork = IconStore.artworkFor("image/jpeg", bytes);
                     } catch (Exception e) {
                         System.err.println("Static-quality JPEG generation failed, moving to PNG...");
                     }
@@ -422,7 +422,7 @@ public class AppDownloader {
                         ByteArrayOutputStream out = new ByteArrayOutputStream();
                         ImageIO.write(iconImage, "png", new MemoryCacheImageOutputStream(out));
                         byte[] bytes = out.toByteArray();
-                        artwork = "data:image/png;base64," + Base64.getEncoder().encodeToString(bytes);
+                        artwork = IconStore.artworkFor("image/png", bytes);
                     } catch (Exception e) {
                         System.err.println("PNG generation failed! Skipping icon generation...");
                     }
@@ -5,27 +5,81 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Binary {
+    private static final int ARM64_SLICES = bit(CPUarch.ARM64) | bit(CPUarch.ARM64v8) | bit(CPUarch.ARM64e) | bit(CPUarch.ARM64e_legacy);
+    private static final ConcurrentHashMap<Long, Binary> canonical = new ConcurrentHashMap<>();
     
-    private final HashMap<CPUarch, Boolean> encryptionMatrix;
+    // One bit per CPUarch ordinal
+    private final int supported;
+    private final int encrypted;
+    private final boolean unencryptedSlice;
+    private final boolean slice64Bit;
     
-    protected Binary() {
-        encryptionMatrix = new HashMap<>();
+    private Binary(int supported, int encrypted) {
+        this.supported = supported;
+        this.encrypted = encrypted & supported;
+        unencryptedSlice = (supported & ~encrypted) != 0;
+        slice64Bit = (supported & ARM64_SLICES) != 0;
+    }
+    
+    private static int bit(CPUarch arch) {
+        return 1 << arch.ordinal();
+    }
+    
+    // Binaries are immutable and only a handful of combinations ever show up, so every link shares one instance per combination
+    public static Binary of(int supported, int encrypted) {
+        long key = ((long) supported << 32) | (encrypted & supported & 0xFFFFFFFFL);
+        Binary binary = canonical.get(key);
+        if (binary != null) return binary;
+        binary = new Binary(supported, encrypted);
+        Binary existing = canonical.putIfAbsent(key, binary);
+        return (existing == null) ? binary : existing;
     }
     
     public boolean supportsArchitecture(CPUarch arch) {
-        return encryptionMatrix.containsKey(arch);
+        return (supported & bit(arch)) != 0;
     }
     
     public boolean architectureEncrypted(CPUarch arch) {
-        if (!encryptionMatrix.containsKey(arch)) return false;
-        return encryptionMatrix.get(arch);
+        return (encrypted & bit(arch)) != 0;
+    }
+    
+    public boolean hasUnencryptedSlice() {
+        return unencryptedSlice;
+    }
+    
+    // Any of the arm64 slices, without which an app won't run past iOS 10
+    public boolean has64BitSlice() {
+        return slice64Bit;
+    }
+    
+    public int getSupportedMask() {
+        return supported;
+    }
+    
+    public int getEncryptedMask() {
+        return encrypted;
+    }
+    
+    public List<CPUarch> getArchitectures() {
+        List<CPUarch> architectures = new ArrayList<>();
+        for (CPUarch arch : CPUarch.values())
+            if (supportsArchitecture(arch))
+                architectures.add(arch);
+        return architectures;
     }
     
     public HashMap<CPUarch, Boolean> getEncryptionMatrix() {
-        return encryptionMatrix;
+        HashMap<CPUarch, Boolean> matrix = new HashMap<>();
+        for (CPUarch arch : getArchitectures())
+            matrix.put(arch, architectureEncrypted(arch));
+        return matrix;
     }
     
     public static Binary parseBinary(InputStream binaryStream) throws IOException {
@@ -70,7 +124,8 @@ public class Binary {
     private static Binary resetableParseBinary(InputStream binaryStream) throws IOException {
         int cpuArchMain, cpuArchSub;
         byte[] bytes = new byte[4];
-        Binary binary = new Binary();
+        int supported = 0;
+        int encrypted = 0;
         switch (binaryStream.read()) {
             case 0xcf: { // 64-bit binary
                 if (binaryStream.read() != 0xfa) return null;
@@ -95,7 +150,7 @@ public class Binary {
                     }
                 }
                 //System.out.println("This binary is for " + arch.name());
-                binary.encryptionMatrix.put(arch, false);
+                supported |= bit(arch);
                 binaryStream.read(bytes); // File type (irrelevant)
                 binaryStream.read(bytes); // Load command count
                 binaryStream.read(bytes);
@@ -124,11 +179,11 @@ public class Binary {
                         }
                         if (workingValue == 0) continue;
                         //System.out.println("Binary has encrypted segment.");
-                        binary.encryptionMatrix.put(arch, true);
-                        return binary;
+                        encrypted |= bit(arch);
+                        return of(supported, encrypted);
                     }
                 }
-                return binary;
+                return of(supported, encrypted);
             }
             case 0xce: { // 32-bit binary
                 if (binaryStream.read() != 0xfa) return null;
@@ -153,7 +208,7 @@ public class Binary {
                     }
                 }
                 //System.out.println("This binary is for " + arch.name());
-                binary.encryptionMatrix.put(arch, false);
+                supported |= bit(arch);
                 binaryStream.read(bytes); // File type (irrelevant)
                 binaryStream.read(bytes); // Load command count
                 binaryStream.read(bytes);
@@ -181,11 +236,11 @@ public class Binary {
                         }
                         if (workingValue == 0) continue;
                         //System.out.println("Binary has encrypted segment.");
-                        binary.encryptionMatrix.put(arch, true);
-                        return binary;
+                        encrypted |= bit(arch);
+                        return of(supported, encrypted);
                     }
                 }
-                return binary;
+                return of(supported, encrypted);
             }
             case 0xca: { // multi-architecture
                 if (binaryStream.read() != 0xfe) return null;
@@ -233,9 +288,11 @@ public class Binary {
                     binaryStream.skip(fileOffsetMatrix.get(entry));
                     Binary temp = resetableParseBinary(binaryStream);
                     if (temp == null) continue;
-                    binary.encryptionMatrix.put(entry, temp.architectureEncrypted(entry));
+                    supported |= bit(entry);
+                    if (temp.architectureEncrypted(entry))
+                        encrypted |= bit(entry);
                 }
-                return binary;
+                return of(supported, encrypted);
             }
         }
         return null;
@@ -243,20 +300,35 @@ public class Binary {
     
     public JSONObject toJSON() {
         JSONObject object = new JSONObject();
-        for (CPUarch arch : encryptionMatrix.keySet()) {
-            object.put(arch.name(), encryptionMatrix.get(arch));
+        for (CPUarch arch : getArchitectures()) {
+            object.put(arch.name(), architectureEncrypted(arch));
         }
         return object;
     }
     
+    public static Binary fromEncryptionMatrix(Map<CPUarch, Boolean> matrix) {
+        int supported = 0;
+        int encrypted = 0;
+        for (Map.Entry<CPUarch, Boolean> entry : matrix.entrySet()) {
+            supported |= bit(entry.getKey());
+            if (entry.getValue())
+                encrypted |= bit(entry.getKey());
+        }
+        return of(supported, encrypted);
+    }
+    
     public static Binary fromJSON(JSONObject json) {
         if (json == null) {
             return null;
         }
-        Binary binary = new Binary();
+        int supported = 0;
+        int encrypted = 0;
         for (String key : json.keySet()) {
-            binary.encryptionMatrix.put(CPUarch.valueOf(key), json.getBoolean(key));
+            CPUarch arch = CPUarch.valueOf(key);
+            supported |= bit(arch);
+            if (json.getBoolean(key))
+                encrypted |= bit(arch);
         }
-        return binary;
+        return of(supported, encrypted);
     }
 }
@@ -1,9 +1,27 @@
 package ca.litten.ios_obscura_server.backend;
 
 import ca.litten.ios_obscura_server.backend.App;
+import ca.litten.ios_obscura_server.parser.Binary;
+import ca.litten.ios_obscura_server.parser.CPUarch;
 import org.junit.*;
 
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.SortedMap;
 import java.util.stream.Collectors;
 
@@ -49,6 +67,406 @@ public class AppListTest {
     
     @Test
     public void TestAppList() {
+        App app = new App("Lookup app", "ca.litten.lookup");
+        Catalog snapshot = AppList.getCatalog();
+        AppList.addApp(app);
+        assertNull(snapshot.getAppByBundleID("ca.litten.lookup"));
+        AppList.addApp(new App("Duplicate app", "ca.litten.lookup"));
+        assertSame(app, AppList.getAppByBundleID("ca.litten.lookup"));
+        assertNull(AppList.getAppByBundleID("ca.litten.missing"));
+        assertEquals(1, AppList.searchApps("Lookup app").size());
+        assertTrue(AppList.searchApps("Duplicate app").isEmpty());
+    }
+    
+    @Test
+    public void TestCatalogSnapshotsSurviveGrowth() {
+        List<Catalog> snapshots = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            snapshots.add(AppList.getCatalog());
+            AppList.addApp(new App("Growth app " + i, "ca.litten.growth." + i));
+        }
+        for (int i = 0; i < snapshots.size(); i++) {
+            Catalog snapshot = snapshots.get(i);
+            List<App> apps = snapshot.getApps();
+            assertEquals(snapshot.size(), apps.size());
+            assertNull(snapshot.getAppByBundleID("ca.litten.growth." + i));
+            if (i > 0) assertEquals("Growth app " + (i - 1), snapshot.getAppByBundleID("ca.litten.growth." + (i - 1)).getName());
+            assertEquals(i + snapshots.get(0).size(), apps.size());
+        }
+        assertEquals(100 + snapshots.get(0).size(), AppList.getCatalog().size());
+    }
+    
+    @Test
+    public void TestAppUrlAlreadyExists() {
+        App app = new App("Url app", "ca.litten.urls");
+        app.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/urls.1.0.ipa", "0", 0)}, "3.0");
+        AppList.addApp(app);
+        app.addAppVersion("1.1", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/urls.1.1.ipa", "0", 0)}, "3.0");
+        App unlisted = new App("Unlisted app", "ca.litten.unlisted");
+        unlisted.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/unlisted.ipa", "0", 0)}, "3.0");
+        assertTrue(AppList.appUrlAlreadyExists("http://litten.ca/urls.1.0.ipa"));
+        assertTrue(AppList.appUrlAlreadyExists("http://litten.ca/urls.1.1.ipa"));
+        assertFalse(AppList.appUrlAlreadyExists("http://litten.ca/unlisted.ipa"));
+    }
+    
+    @Test
+    public void TestSearchApps() {
+        App longer = new App("Trigram Searcher Deluxe", "ca.litten.search.deluxe");
+        App shorter = new App("Trigram Searcher", "ca.litten.search");
+        App renamed = new App("", "ca.litten.search.renamed");
+        longer.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/deluxe.ipa", "0", 0)}, "6.0");
+        shorter.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/search.ipa", "0", 0)}, "4.0");
+        AppList.addApp(longer);
+        AppList.addApp(shorter);
+        AppList.addApp(renamed);
+        assertEquals(Arrays.asList(shorter, longer), AppList.searchApps("trigram SEARCHER"));
+        assertEquals(Arrays.asList(shorter), AppList.searchApps("trigram searcher", "5.0"));
+        assertTrue(AppList.searchApps("searcher trigram").isEmpty());
+        assertTrue(AppList.searchApps("Renamed Trigram").isEmpty());
+        renamed.updateName("Renamed Trigram");
+        assertEquals(Arrays.asList(renamed), AppList.searchApps("renamed trigram"));
+        assertTrue(AppList.searchApps("ca.litten.search.renamed").isEmpty());
+        assertTrue(AppList.searchApps("Tr").contains(shorter));
+    }
+    
+    @Test
+    public void TestListAppsThatSupportVersion() {
+        App app = new App("Version index app", "ca.litten.versionindex");
+        app.addAppVersion("2.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/versionindex.2.0.ipa", "0", 0)}, "1.5");
+        AppList.addApp(app);
+        assertFalse(AppList.listAppsThatSupportVersion("1.4.9").contains(app));
+        assertTrue(AppList.listAppsThatSupportVersion("1.5").contains(app));
+        Catalog snapshot = AppList.getCatalog();
+        int before = AppList.countAppsThatSupportVersion("1.1");
+        app.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/versionindex.1.0.ipa", "0", 0)}, "1.1");
+        assertTrue(AppList.listAppsThatSupportVersion("1.1").contains(app));
+        assertEquals(before + 1, AppList.countAppsThatSupportVersion("1.1"));
+        assertFalse(snapshot.listAppsThatSupportVersion("1.1").contains(app));
+        assertTrue(AppList.getCatalog().getGeneration() > snapshot.getGeneration());
+        assertEquals(AppList.listAppsThatSupportVersion("99999999").size(), AppList.countAppsThatSupportVersion("99999999"));
+    }
+    
+    @Test
+    public void TestReadAppDatabase() {
+        App icon = new App("Icon app", "ca.litten.icon");
+        icon.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/icon.ipa", "10", 1024)}, "4.0");
+        icon.updateArtwork("1.0", "http://litten.ca/icon.png");
+        icon.updateDeveloper("1.0", "Litten");
+        App noIcon = new App("No icon app", "ca.litten.noicon");
+        noIcon.addAppVersion("2.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/noicon.ipa", "20", 2048)}, "5.0");
+        String database = "[" + icon.getAppJSON() + " ,\n" + noIcon.getAppJSON() + "]";
+        List<App> read = new ArrayList<>();
+        AppList.readAppDatabase(new StringReader(database), false, false, read::add);
+        assertEquals(2, read.size());
+        assertEquals(icon.getAppJSON().toString(), read.get(0).getAppJSON().toString());
+        assertEquals(noIcon.getAppJSON().toString(), read.get(1).getAppJSON().toString());
+        read.clear();
+        AppList.readAppDatabase(new StringReader(database), true, false, read::add);
+        assertEquals(1, read.size());
+        assertEquals("ca.litten.icon", read.get(0).getBundleID());
+        read.clear();
+        AppList.readAppDatabase(new StringReader(" [ ] "), false, false, read::add);
+        assertTrue(read.isEmpty());
+    }
+    
+    @Test
+    public void TestReadAppDatabaseInBatches() throws IOException {
+        StringBuilder database = new StringBuilder("[");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            App app = new App("Batch {app} \"" + i + "\" [\\", "ca.litten.batch" + i);
+            app.addAppVersion("1." + i, new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/batch" + i + ".ipa", "1", i)}, "3.0");
+            if (i > 0) database.append(i % 2 == 0 ? "," : " ,\n ");
+            database.append(app.getAppJSON());
+            expected.add(app.getAppJSON().toString());
+        }
+        database.append("]");
+        List<String> read = new ArrayList<>();
+        AppList.readAppDatabase(new StringReader(database.toString()), false, false, app -> read.add(app.getAppJSON().toString()));
+        assertEquals(expected, read);
+        File file = File.createTempFile("obscura", ".json");
+        file.deleteOnExit();
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(database.substring(0, database.length() - 1) + "," + expected.get(5).replace("ca.litten.batch5\"", "ca.litten.batch5\",\"x\":1") + "]");
+        }
+        AppList.loadAppDatabaseFile(file);
+        List<App> apps = AppList.getCatalog().getApps();
+        assertEquals(10000, apps.size());
+        for (int i = 0; i < apps.size(); i++)
+            assertEquals("ca.litten.batch" + i, apps.get(i).getBundleID());
+        assertEquals(1, AppList.getCatalog().searchApps("{app} \"4321\"").size());
+        assertTrue(AppList.appUrlAlreadyExists("http://litten.ca/batch9999.ipa"));
+    }
+    
+    @Test
+    public void TestSaveAppDatabaseFile() throws IOException {
+        App app = new App("Saved app", "ca.litten.saved");
+        app.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/saved.ipa", "1", 1)}, "2.0");
+        AppList.addApp(app);
+        File file = File.createTempFile("obscura", ".json");
+        file.deleteOnExit();
+        assertTrue(AppList.saveAppDatabaseFile(file));
+        assertFalse(AppList.saveAppDatabaseFile(file));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        List<App> read = new ArrayList<>();
+        try (Reader reader = new FileReader(file)) {
+            AppList.readAppDatabase(reader, false, false, read::add);
+        }
+        assertEquals(AppList.getCatalog().size(), read.size());
+        assertTrue(read.stream().anyMatch(saved -> saved.getBundleID().equals("ca.litten.saved")));
+    }
+    
+    @Test
+    public void TestBinaryCatalogFile() throws IOException {
+        HashMap<CPUarch, Boolean> matrix = new HashMap<>();
+        matrix.put(CPUarch.ARMv7, true);
+        matrix.put(CPUarch.ARM64v8, false);
+        App app = new App("Bïnary app", "ca.litten.binary");
+        app.addAppVersion("2.1", new App.VersionLink[]{new App.VersionLink(Binary.fromEncryptionMatrix(matrix),
+                "http://litten.ca/binary.ipa", "21", 123456789012L)}, "6.0");
+        app.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/binary-old.ipa", "1", 5)}, "4.3");
+        app.updateArtwork("1.0", "http://litten.ca/binary.png");
+        app.updateDeveloper("2.1", "Litten");
+        app.usedMetaName();
+        App other = new App("", "ca.litten.other");
+        File file = File.createTempFile("obscura", ".bin");
+        file.deleteOnExit();
+        BinaryCatalogFile.write(file, Arrays.asList(app, other));
+        assertTrue(BinaryCatalogFile.isBinaryCatalog(file));
+        List<App> read = new ArrayList<>();
+        BinaryCatalogFile.read(file, false, false, read::add);
+        assertEquals(2, read.size());
+        assertEquals(app.getAppJSON().toString(), read.get(0).getAppJSON().toString());
+        assertEquals(other.getAppJSON().toString(), read.get(1).getAppJSON().toString());
+        read.clear();
+        BinaryCatalogFile.read(file, true, false, read::add);
+        assertEquals(1, read.size());
+        assertEquals(app.getAppJSON().toString(), BinaryCatalogFile.readApp(file, "ca.litten.binary").getAppJSON().toString());
+        assertEquals("ca.litten.other", BinaryCatalogFile.readApp(file, "ca.litten.other").getBundleID());
+        assertNull(BinaryCatalogFile.readApp(file, "ca.litten.missing"));
+    }
+    
+    @Test
+    public void TestChangeJournal() throws IOException {
+        File base = File.createTempFile("obscura", ".json");
+        base.deleteOnExit();
+        try (Writer writer = new FileWriter(base)) {
+            writer.write("[]");
+        }
+        File journal = File.createTempFile("obscura", ".journal");
+        journal.deleteOnExit();
+        new File(journal.getPath() + ".old").deleteOnExit();
+        AppList.loadAppDatabaseFile(base);
+        AppList.loadJournal(journal);
+        App app = new App("", "ca.litten.journaled");
+        AppList.addApp(app);
+        app.updateName("Journaled app");
+        app.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/journaled.ipa", "1", 10)}, "3.0");
+        app.updateArtwork("1.0", "http://litten.ca/journaled.png");
+        app.updateDeveloper("1.0", "Litten");
+        String expected = app.getAppJSON().toString();
+        AppList.closeJournal();
+        AppList.loadAppDatabaseFile(base);
+        assertNull(AppList.getAppByBundleID("ca.litten.journaled"));
+        AppList.loadJournal(journal);
+        assertEquals(expected, AppList.getAppByBundleID("ca.litten.journaled").getAppJSON().toString());
+        assertTrue(AppList.saveAppDatabaseFile(base));
+        assertFalse(new File(journal.getPath() + ".old").exists());
+        AppList.getAppByBundleID("ca.litten.journaled").updateDeveloper("0.9", "Earlier Litten");
+        AppList.closeJournal();
+        AppList.loadAppDatabaseFile(base);
+        AppList.loadJournal(journal);
+        App reloaded = AppList.getAppByBundleID("ca.litten.journaled");
+        assertEquals("Earlier Litten", reloaded.getDeveloper());
+        assertEquals(1, reloaded.getAllUrls().size());
+        AppList.closeJournal();
+    }
+    
+    @Test
+    public void TestCatalogListener() throws InterruptedException {
+        List<CatalogEvent> received = Collections.synchronizedList(new ArrayList<>());
+        CatalogListener listener = events -> {
+            for (CatalogEvent event : events)
+                if ("ca.litten.events".equals(event.getBundleID()))
+                    received.add(event);
+        };
+        AppList.addCatalogListener(listener);
+        App app = new App("", "ca.litten.events");
+        AppList.addApp(app);
+        app.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/events.ipa", "1", 1)}, "4.0");
+        app.updateArtwork("1.0", "http://litten.ca/events.png");
+        app.updateName("Event app");
+        AppList.flushCatalogEvents();
+        AppList.removeCatalogListener(listener);
+        assertEquals(Arrays.asList(CatalogEvent.Type.APP_ADDED, CatalogEvent.Type.VERSION_ADDED,
+                CatalogEvent.Type.ARTWORK_CHANGED, CatalogEvent.Type.NAME_CHANGED),
+                received.stream().map(CatalogEvent::getType).collect(Collectors.toList()));
+        for (int i = 1; i < received.size(); i++)
+            assertTrue(received.get(i).getGeneration() > received.get(i - 1).getGeneration());
+        assertEquals(AppList.getCatalog().getGeneration(), received.get(received.size() - 1).getGeneration());
+    }
+    
+    @Test
+    public void TestCatalogStats() throws InterruptedException {
+        App app = new App("Stats app", "ca.litten.stats");
+        AppList.addApp(app);
+        app.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/stats1.ipa", "1", 1)}, "3.0");
+        app.addAppVersion("2.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/stats2.ipa", "2", 1),
+                new App.VersionLink(null, "http://litten.ca/stats2b.ipa", "2", 1)}, "6.0");
+        AppList.flushCatalogEvents();
+        CatalogStats stats = AppList.getStats();
+        assertEquals(AppList.getCatalog().getGeneration(), stats.getGeneration());
+        List<App> apps = AppList.getCatalog().getApps();
+        assertEquals(apps.size(), stats.getAppCount());
+        assertEquals(apps.stream().mapToLong(App::countUrls).sum(), stats.getUrlCount());
+        for (String version : new String[]{"2.0", "3.0", "5.1.1", "6.0", "99999999"}) {
+            VersionKey key = VersionKey.of(version);
+            assertEquals(apps.stream().mapToLong(a -> a.countSupportedAppVersions(key)).sum(), stats.countVersionsSupporting(key));
+            assertEquals(apps.stream().mapToLong(a -> a.countUrlsForVersion(key)).sum(), stats.countUrlsSupporting(key));
+        }
+    }
+    
+    @Test
+    public void TestCatalogColumns() {
+        App app = new App("Columns app", "ca.litten.columns");
+        app.addAppVersion("2.0", new App.VersionLink[]{new App.VersionLink(Binary.of(1, 0), "http://litten.ca/columns/2.ipa", "20", 2048)}, "6.0");
+        app.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/columns/1.ipa", "10", 1024),
+                new App.VersionLink(null, "http://archive.org/download/columns/1b.ipa", "10", 1)}, "3.0");
+        AppList.addApp(app);
+        Catalog catalog = AppList.getCatalog();
+        CatalogColumns columns = catalog.getColumns();
+        assertSame(columns, catalog.getColumns());
+        assertEquals(catalog.size(), columns.getAppCount());
+        int index = -1;
+        for (int i = 0; i < columns.getAppCount(); i++)
+            if (columns.getBundleID(i).equals("ca.litten.columns")) index = i;
+        assertEquals("Columns app", columns.getName(index));
+        assertEquals(app.countUrls(), columns.countUrls(index));
+        int limit = columns.supportLimit(VersionKey.of("5.1.1"));
+        List<String> supported = new ArrayList<>();
+        for (int version = columns.getFirstVersion(index); version < columns.getVersionEnd(index); version++)
+            if (columns.isSupported(version, limit)) supported.add(columns.getVersion(version));
+        assertEquals(Arrays.asList(app.getSupportedAppVersions("5.1.1")), supported);
+        List<String> urls = new ArrayList<>();
+        for (int version = columns.getFirstVersion(index); version < columns.getVersionEnd(index); version++)
+            for (int link = columns.getFirstLink(version); link < columns.getLinkEnd(version); link++)
+                urls.add(columns.getUrl(link));
+        assertEquals(app.getAllUrls(), urls);
+        int last = columns.getLinkEnd(columns.getVersionEnd(index) - 1) - 1;
+        assertSame(Binary.of(1, 0), columns.getBinary(last));
+        assertEquals("2.0kB", columns.getSize(last));
+    }
+    
+    @Test
+    public void TestIconStore() throws IOException {
+        File location = File.createTempFile("obscura", ".icons");
+        location.deleteOnExit();
+        assertTrue(location.delete());
+        byte[] png = new byte[]{(byte) 0x89, 'P', 'N', 'G', 1, 2, 3};
+        String dataUri = "data:image/png;base64," + Base64.getEncoder().encodeToString(png);
+        assertEquals(dataUri, IconStore.intern(dataUri));
+        IconStore.open(location);
+        try {
+            App app = new App("Icon store app", "ca.litten.iconstore");
+            app.updateArtwork("1.0", dataUri);
+            String reference = app.getArtworkURL();
+            assertTrue(IconStore.isStoredIcon(reference));
+            assertEquals(reference, IconStore.intern(dataUri));
+            app.updateArtwork("2.0", "http://litten.ca/iconstore.png");
+            assertEquals("http://litten.ca/iconstore.png", app.getArtworkURL());
+            IconStore.open(location);
+            IconStore.Icon icon = IconStore.get(reference);
+            assertEquals("image/png", icon.getContentType());
+            byte[] read = new byte[icon.getLength()];
+            icon.getData().get(read);
+            assertArrayEquals(png, read);
+            assertEquals(1, IconStore.size());
+        } finally {
+            IconStore.close();
+        }
+    }
+    
+    private static String writeIconRecord(RandomAccessFile out, String contentType, byte[] data, long length) throws IOException, NoSuchAlgorithmException {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(data == null ? Long.toString(length).getBytes(StandardCharsets.UTF_8) : data);
+        out.write(hash);
+        byte[] type = contentType.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(type.length);
+        out.write(type);
+        out.writeInt((int) length);
+        // Filler records are left as a hole in the file, so they take no space on disk
+        if (data == null) out.seek(out.getFilePointer() + length);
+        else out.write(data);
+        StringBuilder reference = new StringBuilder(IconStore.PREFIX);
+        for (byte b : hash)
+            reference.append(String.format("%02x", b));
+        return reference.toString();
+    }
     
+    private static void assertIcon(byte[] expected, String reference) {
+        IconStore.Icon icon = IconStore.get(reference);
+        assertNotNull(icon);
+        byte[] read = new byte[icon.getLength()];
+        icon.getData().get(read);
+        assertArrayEquals(expected, read);
+    }
+    
+    @Test
+    public void TestIconStorePastTwoGiB() throws IOException, NoSuchAlgorithmException {
+        File location = File.createTempFile("obscura", ".icons");
+        location.deleteOnExit();
+        byte[] spanning = new byte[1000];
+        byte[] far = new byte[1000];
+        byte[] appended = new byte[1000];
+        for (int i = 0; i < 1000; i++) {
+            spanning[i] = (byte) i;
+            far[i] = (byte) (i * 3);
+            appended[i] = (byte) (i * 7);
+        }
+        String spanningReference, farReference;
+        try (RandomAccessFile out = new RandomAccessFile(location, "rw")) {
+            out.writeInt(0x4F424943);
+            // Ends just short of the first 1 GiB, so the next icon runs across it
+            writeIconRecord(out, "filler", null, (1L << 30) - 600);
+            spanningReference = writeIconRecord(out, "image/png", spanning, spanning.length);
+            writeIconRecord(out, "filler", null, 1200L << 20);
+            farReference = writeIconRecord(out, "image/png", far, far.length);
+            assertTrue(out.length() > Integer.MAX_VALUE);
+        }
+        IconStore.open(location);
+        try {
+            assertEquals(4, IconStore.size());
+            assertIcon(spanning, spanningReference);
+            assertIcon(far, farReference);
+            String appendedReference = IconStore.store("image/png", appended);
+            assertNotNull(appendedReference);
+            assertIcon(appended, appendedReference);
+            assertIcon(far, farReference);
+        } finally {
+            IconStore.close();
+            assertTrue(location.delete());
+        }
+    }
+    
+    @Test
+    public void TestVersionLinks() {
+        App app = new App("Mirrored app", "ca.litten.mirrored");
+        for (int i = 0; i < 20; i++) {
+            app.addAppVersion("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://mirror" + i + ".litten.ca/mirrored.ipa", "1", 1),
+                    new App.VersionLink(null, "http://mirror0.litten.ca/mirrored.ipa", "1", 1)}, "4.0");
+        }
+        app.addAppVersion("0.9", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/mirrored.0.9.ipa", "1", 1)}, "3.0");
+        assertEquals(20, app.getLinksForVersion("1.0").length);
+        assertEquals("http://mirror19.litten.ca/mirrored.ipa", app.getUrlsForVersion("1.0")[19]);
+        assertEquals(21, app.getAllUrls().size());
+        assertEquals("3.0", app.getCompatibleVersion("0.9"));
+        assertEquals("69.420", app.getCompatibleVersion("2.0"));
+        assertArrayEquals(new String[]{"0.9", "1.0"}, app.getSupportedAppVersions("5.0"));
+        assertEquals(0, app.getLinksForVersion("2.0").length);
+        app.addAppVersionNoSort("0.5", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/mirrored.0.5.ipa", "1", 1)}, "3.0");
+        app.addAppVersionNoSort("1.0", new App.VersionLink[]{new App.VersionLink(null, "http://litten.ca/mirrored.1.0.ipa", "1", 1)}, "2.0");
+        assertArrayEquals(new String[]{"0.5", "0.9", "1.0"}, app.getSupportedAppVersions("3.0"));
+        assertEquals(1, app.countSupportedAppVersions(VersionKey.of("2.9")));
+        assertEquals(23, app.countUrls());
+        assertEquals(21, app.countUrlsForVersion(VersionKey.of("2.0")));
     }
 }
@@ -0,0 +1,93 @@
+package ca.litten.ios_obscura_server.backend;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VersionKeyTest {
+    // The string-splitting comparison VersionKey replaced, kept here to check the ordering never changed
+    private static boolean referenceIsVersionLater(String lateVersion, String checkVersion) {
+        String[] support = lateVersion.split("\\.");
+        String[] check = checkVersion.split("\\.");
+        int checkLen = Math.max(check.length, support.length);
+        int checkVer;
+        int supportVer;
+        for (int i = 0; i < checkLen; i++) {
+            try {
+                try {
+                    supportVer = Integer.parseInt(support[i]);
+                } catch (IndexOutOfBoundsException e) {
+                    supportVer = 0;
+                }
+                try {
+                    checkVer = Integer.parseInt(check[i]);
+                } catch (IndexOutOfBoundsException e) {
+                    checkVer = 0;
+                }
+                if (supportVer > checkVer) return false;
+                if (supportVer < checkVer) return true;
+            } catch (NumberFormatException e) {
+                try {
+                    int comp = support[i].compareTo(check[i]);
+                    if (comp < 0) return true;
+                    if (comp > 0) return false;
+                } catch (IndexOutOfBoundsException f) {
+                    return support.length < check.length;
+                }
+            }
+        }
+        return true;
+    }
+    
+    private static final String[] samples = new String[]{"1", "1.0", "1.0.0", "1.2", "1.2.3", "1.10", "2", "2.2.1", "3.0",
+            "4.3", "5.1.1", "6.1.3", "7.0", "10.3.4", "16.6.1", "17.0", "99999999", "999999999", "4000000000", "1.0b",
+            "1.0.0a", "beta", "1.a.2", "01.2", "+1", "-1", "", ".", "1..2", ".5", "1.0.0.0.1", "2.0.4096", "1.2.3.4"};
+    
+    @Test
+    public void TestMatchesReference() {
+        for (String a : samples)
+            for (String b : samples)
+                assertEquals(a + " vs " + b, referenceIsVersionLater(a, b), App.isVersionLater(a, b));
+    }
+    
+    @Test
+    public void TestRandomVersionsMatchReference() {
+        Random random = new Random(1234);
+        String[] pieces = new String[]{"0", "1", "2", "9", "10", "12", "4095", "4096", "65536", "a", "b2", ""};
+        String[] versions = new String[300];
+        for (int i = 0; i < versions.length; i++) {
+            StringBuilder builder = new StringBuilder();
+            int count = 1 + random.nextInt(5);
+            for (int j = 0; j < count; j++) {
+                if (j > 0) builder.append('.');
+                builder.append(pieces[random.nextInt(pieces.length)]);
+            }
+            versions[i] = builder.toString();
+        }
+        for (String a : versions)
+            for (String b : versions)
+                assertEquals(a + " vs " + b, referenceIsVersionLater(a, b), App.isVersionLater(a, b));
+    }
+    
+    @Test
+    public void TestOrdering() {
+        assertTrue(VersionKey.of("1.0").compareTo(VersionKey.of("1.0.1")) < 0);
+        assertTrue(VersionKey.of("1.10").compareTo(VersionKey.of("1.9")) > 0);
+        assertEquals(0, VersionKey.of("1.0").compareTo(VersionKey.of("1")));
+        assertNotEquals(VersionKey.of("1.0"), VersionKey.of("1"));
+        assertSame(VersionKey.of("6.1.3"), VersionKey.of("6.1.3"));
+    }
+    
+    @Test
+    public void TestEarliestDeveloperAndArtwork() {
+        App app = new App("Earliest app", "ca.litten.earliest");
+        for (int i = 50; i > 0; i--) {
+            app.updateDeveloper("800." + i, "Developer " + i);
+            app.updateArtwork("800." + i, "https://example.com/" + i + ".png");
+        }
+        assertEquals("Developer 1", app.getDeveloper());
+        assertEquals("https://example.com/1.png", app.getArtworkURL());
+    }
+}
@@ -0,0 +1,125 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import org.junit.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class ContentEncodingTest {
+    private static final String OLD_IOS = "Mozilla/5.0 (iPhone; U; CPU iPhone OS 4_2_1 like Mac OS X; en-us) AppleWebKit/533.17.9 (KHTML, like Gecko) Version/5.0.2 Mobile/8C148 Safari/6533.18.5";
+    private static final String NEW_IOS = "Mozilla/5.0 (iPhone; CPU iPhone OS 9_3_5 like Mac OS X) AppleWebKit/601.1.46 (KHTML, like Gecko) Version/9.0 Mobile/13G36 Safari/601.1";
+    private static final String OLD_IPAD = "Mozilla/5.0 (iPad; U; CPU OS 3_2 like Mac OS X; en-us) AppleWebKit/531.21.10 (KHTML, like Gecko) Version/4.0.4 Mobile/7B334b Safari/531.21.10";
+    private static final String DESKTOP = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.0 Safari/605.1.15";
+    
+    private final ContentEncoding encodings = new ContentEncoding("5.0");
+    
+    private String negotiate(String userAgent, String... accepted) {
+        RecordingExchange exchange = new RecordingExchange();
+        if (userAgent != null) exchange.header("User-Agent", userAgent);
+        for (String header : accepted)
+            exchange.header("Accept-Encoding", header);
+        String encoding = encodings.negotiate(exchange);
+        assertEquals("Accept-Encoding, User-Agent", exchange.getResponseHeaders().getFirst("Vary"));
+        return encoding;
+    }
+    
+    @Test
+    public void TestNegotiate() {
+        assertNull(negotiate(DESKTOP));
+        assertEquals(ContentEncoding.GZIP, negotiate(DESKTOP, "gzip, deflate"));
+        assertEquals(ContentEncoding.GZIP, negotiate(DESKTOP, "x-gzip"));
+        assertEquals(ContentEncoding.DEFLATE, negotiate(DESKTOP, "deflate"));
+        assertEquals(ContentEncoding.DEFLATE, negotiate(DESKTOP, "gzip;q=0.5, deflate;q=0.8"));
+        assertEquals(ContentEncoding.GZIP, negotiate(DESKTOP, "gzip;q=0.8, deflate;q=0.8"));
+        assertEquals(ContentEncoding.DEFLATE, negotiate(DESKTOP, "gzip;q=0, deflate"));
+        assertEquals(ContentEncoding.DEFLATE, negotiate(DESKTOP, "deflate;q=0.1", "GZIP;Q=0"));
+        assertNull(negotiate(DESKTOP, "gzip;q=0, deflate;q=0"));
+        assertNull(negotiate(DESKTOP, "gzip;q=nonsense"));
+        assertNull(negotiate(DESKTOP, "identity, br"));
+        // Anything not named takes the quality of *
+        assertEquals(ContentEncoding.GZIP, negotiate(DESKTOP, "*"));
+        assertEquals(ContentEncoding.DEFLATE, negotiate(DESKTOP, "gzip;q=0, *;q=0.5"));
+        assertNull(negotiate(DESKTOP, "*;q=0"));
+    }
+    
+    @Test
+    public void TestOldIOSGetsNoCompression() {
+        assertNull(negotiate(OLD_IOS, "gzip, deflate"));
+        assertNull(negotiate(OLD_IPAD, "gzip, deflate"));
+        assertEquals(ContentEncoding.GZIP, negotiate(NEW_IOS, "gzip, deflate"));
+        assertEquals(ContentEncoding.GZIP, negotiate("Mozilla/5.0 (iPhone; CPU iPhone OS 5_0 like Mac OS X)", "gzip"));
+        assertEquals(ContentEncoding.GZIP, new ContentEncoding("3.0").negotiate(new RecordingExchange()
+                .header("User-Agent", OLD_IOS).header("Accept-Encoding", "gzip")));
+    }
+    
+    private static byte[] page() {
+        StringBuilder page = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+            page.append("<li><a href=\"/getAppVersions/ca.litten.app").append(i).append("\">App ").append(i).append("</a></li>");
+        return page.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) != -1)
+            out.write(buf, 0, read);
+        in.close();
+        return out.toByteArray();
+    }
+    
+    // Decodes the body with the JDK's own streams, so both wrappers are checked against real parsers
+    private static byte[] decode(RecordingExchange exchange) throws IOException {
+        String encoding = exchange.getResponseHeaders().getFirst("Content-Encoding");
+        assertEquals(200, exchange.code);
+        assertEquals(exchange.getBody().length, exchange.length);
+        if (encoding == null) return exchange.getBody();
+        if (encoding.equals(ContentEncoding.GZIP))
+            return readAll(new GZIPInputStream(new ByteArrayInputStream(exchange.getBody())));
+        assertEquals(ContentEncoding.DEFLATE, encoding);
+        return readAll(new InflaterInputStream(new ByteArrayInputStream(exchange.getBody())));
+    }
+    
+    @Test
+    public void TestRoundTrip() throws IOException {
+        byte[] page = page();
+        ContentEncoding.Body body = new ContentEncoding.Body(page);
+        for (String encoding : new String[]{ContentEncoding.GZIP, ContentEncoding.DEFLATE}) {
+            RecordingExchange exchange = new RecordingExchange();
+            ContentEncoding.send(exchange, page, encoding);
+            assertEquals(encoding, exchange.getResponseHeaders().getFirst("Content-Encoding"));
+            assertTrue(exchange.getBody().length < page.length);
+            assertArrayEquals(page, decode(exchange));
+            exchange = new RecordingExchange();
+            ContentEncoding.send(exchange, body, encoding);
+            assertEquals(encoding, exchange.getResponseHeaders().getFirst("Content-Encoding"));
+            assertArrayEquals(page, decode(exchange));
+        }
+        RecordingExchange exchange = new RecordingExchange();
+        ContentEncoding.send(exchange, body, null);
+        assertNull(exchange.getResponseHeaders().getFirst("Content-Encoding"));
+        assertArrayEquals(page, exchange.getBody());
+    }
+    
+    @Test
+    public void TestSmallBodiesGoAsTheyAre() throws IOException {
+        byte[] small = "<html>Not found</html>".getBytes(StandardCharsets.UTF_8);
+        RecordingExchange exchange = new RecordingExchange();
+        ContentEncoding.send(exchange, small, ContentEncoding.GZIP);
+        assertNull(exchange.getResponseHeaders().getFirst("Content-Encoding"));
+        assertArrayEquals(small, exchange.getBody());
+        exchange = new RecordingExchange();
+        ContentEncoding.send(exchange, new ContentEncoding.Body(small), ContentEncoding.DEFLATE);
+        assertNull(exchange.getResponseHeaders().getFirst("Content-Encoding"));
+        assertArrayEquals(small, exchange.getBody());
+        assertEquals(small.length, new ContentEncoding.Body(small).size());
+    }
+}
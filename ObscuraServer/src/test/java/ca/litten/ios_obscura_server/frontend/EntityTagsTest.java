@@ -0,0 +1,89 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import org.junit.*;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class EntityTagsTest {
+    
+    @Test
+    public void TestOf() {
+        String tag = EntityTags.of(35, "ca.litten.app", "9.3");
+        assertTrue(tag.startsWith("\""));
+        assertTrue(tag.endsWith("-z-ca.litten.app-9.3\""));
+        assertEquals(tag, EntityTags.of(35, "ca.litten.app", "9.3"));
+        assertNotEquals(tag, EntityTags.of(36, "ca.litten.app", "9.3"));
+        assertNotEquals(tag, EntityTags.of(35, "ca.litten.app", "9.2"));
+        assertTrue(EntityTags.of(0).endsWith("-0\""));
+    }
+    
+    @Test
+    public void TestVariantsAreEscaped() {
+        assertTrue(EntityTags.of(1, "a b").endsWith("-a%20b\""));
+        assertTrue(EntityTags.of(1, "caf\u00e9").endsWith("-caf%c3%a9\""));
+        assertTrue(EntityTags.of(1, "", "x").endsWith("--x\""));
+        // Quotes, separators and spaces never end up in the tag as they are
+        for (String part : new String[]{"with \"quotes\"", "a,b", "a-b", "two words", "W/x", "100%"}) {
+            String tag = EntityTags.of(1, part);
+            assertEquals(part, 2, tag.length() - tag.replace("\"", "").length());
+            assertFalse(part, tag.contains(","));
+            assertFalse(part, tag.contains(" "));
+            assertEquals(part, 3, tag.split("-").length);
+        }
+        // Same hash code, different queries
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertNotEquals(EntityTags.of(1, "Aa"), EntityTags.of(1, "BB"));
+        assertNotEquals(EntityTags.of(1, "a-b"), EntityTags.of(1, "a", "b"));
+        assertNotEquals(EntityTags.of(1, "%20"), EntityTags.of(1, " "));
+    }
+    
+    @Test
+    public void TestForEncoding() {
+        String tag = EntityTags.of(1, "page");
+        assertSame(tag, EntityTags.forEncoding(tag, null));
+        assertEquals(tag.substring(0, tag.length() - 1) + "-gzip\"", EntityTags.forEncoding(tag, ContentEncoding.GZIP));
+        assertEquals(tag.substring(0, tag.length() - 1) + "-deflate\"", EntityTags.forEncoding(tag, ContentEncoding.DEFLATE));
+    }
+    
+    private static RecordingExchange check(String tag, String... conditions) throws IOException {
+        RecordingExchange exchange = new RecordingExchange();
+        for (String condition : conditions)
+            exchange.header("If-None-Match", condition);
+        boolean notModified = EntityTags.notModified(exchange, tag);
+        assertEquals(notModified, exchange.code == 304);
+        assertEquals(notModified, exchange.closed);
+        return exchange;
+    }
+    
+    @Test
+    public void TestNotModified() throws IOException {
+        String tag = EntityTags.of(1, "page");
+        RecordingExchange exchange = check(tag, tag);
+        assertEquals(304, exchange.code);
+        assertEquals(-1, exchange.length);
+        assertEquals(tag, exchange.getResponseHeaders().getFirst("ETag"));
+        assertEquals("no-cache", exchange.getResponseHeaders().getFirst("Cache-Control"));
+        assertEquals(0, exchange.getBody().length);
+        assertEquals(304, check(tag, "\"other\", " + tag + " ,\"another\"").code);
+        assertEquals(304, check(tag, "\"other\"", tag).code);
+        assertEquals(304, check(tag, "W/" + tag).code);
+        assertEquals(304, check(tag, "*").code);
+        assertEquals(304, check(tag, "\"other\", *").code);
+    }
+    
+    @Test
+    public void TestModified() throws IOException {
+        String tag = EntityTags.of(1, "page");
+        RecordingExchange exchange = check(tag);
+        assertEquals(0, exchange.code);
+        assertNull(exchange.getResponseHeaders().getFirst("ETag"));
+        assertEquals(0, check(tag, "\"other\"").code);
+        assertEquals(0, check(tag, EntityTags.of(2, "page")).code);
+        assertEquals(0, check(tag, EntityTags.forEncoding(tag, ContentEncoding.GZIP)).code);
+        // Without its quotes it's a different tag
+        assertEquals(0, check(tag, tag.substring(1, tag.length() - 1)).code);
+        assertEquals(0, check(tag, "").code);
+    }
+}
@@ -0,0 +1,206 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import org.junit.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NioServerEngineTest {
+    private NioServerEngine engine;
+    
+    private static class Response {
+        private final int code;
+        private final Map<String, String> headers;
+        private final String body;
+        
+        private Response(int code, Map<String, String> headers, String body) {
+            this.code = code;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+    
+    private void create(RequestExecutor executor) throws IOException {
+        engine = new NioServerEngine(0, executor);
+        // Answers with the path it was asked for, so pipelined responses can be told apart
+        engine.createContext("/echo", exchange ->
+                exchange.sendResponse(200, ByteBuffer.wrap(exchange.getRequestURI().getPath().getBytes(StandardCharsets.UTF_8))));
+    }
+    
+    @After
+    public void stop() {
+        if (engine != null) engine.stop();
+    }
+    
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", engine.getPort());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+    
+    private static void send(Socket socket, String request) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+    
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int read;
+        while ((read = in.read()) != -1) {
+            if (read == '\n') break;
+            if (read != '\r') line.write(read);
+        }
+        if (read == -1 && line.size() == 0) return null;
+        return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+    
+    private static Response read(Socket socket, boolean head) throws IOException {
+        InputStream in = socket.getInputStream();
+        String status = readLine(in);
+        assertNotNull("Connection closed before a response", status);
+        int code = Integer.parseInt(status.split(" ")[1]);
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty())
+            headers.put(line.substring(0, line.indexOf(':')).trim(), line.substring(line.indexOf(':') + 1).trim());
+        byte[] body = new byte[0];
+        if (!head && headers.containsKey("Content-Length")) {
+            body = new byte[Integer.parseInt(headers.get("Content-Length"))];
+            int at = 0;
+            while (at < body.length) {
+                int read = in.read(body, at, body.length - at);
+                assertNotEquals(-1, read);
+                at += read;
+            }
+        }
+        return new Response(code, headers, new String(body, StandardCharsets.UTF_8));
+    }
+    
+    private static void assertClosed(Socket socket) throws IOException {
+        assertEquals(-1, socket.getInputStream().read());
+    }
+    
+    @Test
+    public void TestKeepAliveAndPipelining() throws IOException {
+        create(null);
+        engine.start();
+        try (Socket socket = connect()) {
+            send(socket, "GET /echo/1 HTTP/1.1\r\nHost: test\r\n\r\nGET /echo/2 HTTP/1.1\r\nHost: test\r\n\r\nGET /missing HTTP/1.1\r\nHost: test\r\n\r\n");
+            Response first = read(socket, false);
+            assertEquals(200, first.code);
+            assertEquals("/echo/1", first.body);
+            assertFalse(first.headers.containsKey("Connection"));
+            assertEquals("/echo/2", read(socket, false).body);
+            assertEquals(404, read(socket, false).code);
+            // Still open after all three
+            send(socket, "GET /echo/3 HTTP/1.1\r\nHost: test\r\nConnection: close\r\n\r\n");
+            Response last = read(socket, false);
+            assertEquals("/echo/3", last.body);
+            assertEquals("close", last.headers.get("Connection"));
+            assertClosed(socket);
+        }
+    }
+    
+    @Test
+    public void TestHttp10KeepAlive() throws IOException {
+        create(null);
+        engine.start();
+        try (Socket socket = connect()) {
+            send(socket, "GET /echo/a HTTP/1.0\r\nConnection: keep-alive\r\n\r\n");
+            Response response = read(socket, false);
+            assertEquals("/echo/a", response.body);
+            assertEquals("keep-alive", response.headers.get("Connection"));
+            send(socket, "GET /echo/b HTTP/1.0\r\n\r\n");
+            response = read(socket, false);
+            assertEquals("/echo/b", response.body);
+            assertEquals("close", response.headers.get("Connection"));
+            assertClosed(socket);
+        }
+    }
+    
+    @Test
+    public void TestHead() throws IOException {
+        create(null);
+        engine.start();
+        try (Socket socket = connect()) {
+            send(socket, "HEAD /echo/head HTTP/1.1\r\nHost: test\r\n\r\nGET /echo/after HTTP/1.1\r\nHost: test\r\n\r\n");
+            Response head = read(socket, true);
+            assertEquals(200, head.code);
+            assertEquals("10", head.headers.get("Content-Length"));
+            // Had the body been sent anyway, it would show up here instead of the next status line
+            Response after = read(socket, false);
+            assertEquals(200, after.code);
+            assertEquals("/echo/after", after.body);
+        }
+    }
+    
+    private void assertRejected(String request, int code) throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, request);
+            Response response = read(socket, false);
+            assertEquals(code, response.code);
+            assertEquals("close", response.headers.get("Connection"));
+            assertClosed(socket);
+        }
+    }
+    
+    @Test
+    public void TestRejections() throws IOException {
+        create(null);
+        engine.start();
+        assertRejected("NONSENSE\r\n\r\n", 400);
+        assertRejected("GET /echo HTTP/2\r\n\r\n", 400);
+        assertRejected("GET /echo HTTP/1.1\r\nContent-Length: many\r\n\r\n", 400);
+        assertRejected("GET /echo|bad HTTP/1.1\r\n\r\n", 400);
+        assertRejected("POST /echo HTTP/1.1\r\nContent-Length: 1000000\r\n\r\n", 413);
+        assertRejected("POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n", 501);
+        char[] filler = new char[1 << 16];
+        Arrays.fill(filler, 'a');
+        assertRejected("GET /echo HTTP/1.1\r\nX-Filler: " + new String(filler), 431);
+    }
+    
+    @Test
+    public void TestOverloaded() throws IOException, InterruptedException {
+        // One worker and no queue, so a second request while the first is being handled can't be taken
+        create(RequestExecutor.create("pool", 1, 0, 10000));
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        engine.createContext("/slow", exchange -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponse(200, ByteBuffer.wrap("done".getBytes(StandardCharsets.UTF_8)));
+        });
+        engine.start();
+        try (Socket slow = connect(); Socket shed = connect()) {
+            send(slow, "GET /slow HTTP/1.1\r\nHost: test\r\n\r\n");
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            send(shed, "GET /echo/shed HTTP/1.1\r\nHost: test\r\n\r\n");
+            Response response = read(shed, false);
+            assertEquals(503, response.code);
+            assertEquals("10", response.headers.get("Retry-After"));
+            assertEquals("no-cache", response.headers.get("Cache-Control"));
+            release.countDown();
+            assertEquals("done", read(slow, false).body);
+            // The worker is free again
+            send(shed, "GET /echo/again HTTP/1.1\r\nHost: test\r\n\r\n");
+            assertEquals("/echo/again", read(shed, false).body);
+        }
+    }
+}
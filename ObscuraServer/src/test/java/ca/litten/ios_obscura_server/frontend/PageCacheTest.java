@@ -0,0 +1,136 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import org.junit.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PageCacheTest {
+    private final AtomicInteger renders = new AtomicInteger();
+    
+    // Small enough to be kept uncompressed, so each page counts for exactly its length
+    private byte[] render(String page) {
+        renders.incrementAndGet();
+        byte[] body = new byte[1000];
+        Arrays.fill(body, (byte) ' ');
+        byte[] name = page.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(name, 0, body, 0, name.length);
+        return body;
+    }
+    
+    private String get(PageCache cache, String page, long generation) throws IOException {
+        RecordingExchange exchange = new RecordingExchange();
+        ContentEncoding.send(exchange, cache.get(page, "tag" + generation, generation, () -> render(page)), null);
+        return new String(exchange.getBody(), StandardCharsets.UTF_8).trim();
+    }
+    
+    @Test
+    public void TestRendersOnce() throws IOException {
+        PageCache cache = new PageCache(1 << 20);
+        assertEquals("/a", get(cache, "/a", 1));
+        assertEquals("/a", get(cache, "/a", 1));
+        assertEquals("/b", get(cache, "/b", 1));
+        assertEquals(2, renders.get());
+        // Same page with another tag is another body
+        cache.get("/a", "other", 1, () -> render("/a"));
+        assertEquals(3, renders.get());
+    }
+    
+    @Test
+    public void TestNewerGenerationEvictsOlder() throws IOException {
+        PageCache cache = new PageCache(1 << 20);
+        get(cache, "/a", 1);
+        get(cache, "/b", 1);
+        get(cache, "/a", 2);
+        assertEquals(3, renders.get());
+        get(cache, "/a", 2);
+        assertEquals(3, renders.get());
+        get(cache, "/b", 1);
+        assertEquals(4, renders.get());
+    }
+    
+    @Test
+    public void TestLeastRecentlyUsedGoesFirst() throws IOException {
+        PageCache cache = new PageCache(3000);
+        get(cache, "/a", 1);
+        get(cache, "/b", 1);
+        get(cache, "/c", 1);
+        get(cache, "/a", 1);
+        assertEquals(3, renders.get());
+        // Over the limit, so /b, used longest ago, makes room
+        get(cache, "/d", 1);
+        assertEquals(4, renders.get());
+        get(cache, "/a", 1);
+        get(cache, "/c", 1);
+        get(cache, "/d", 1);
+        assertEquals(4, renders.get());
+        get(cache, "/b", 1);
+        assertEquals(5, renders.get());
+    }
+    
+    @Test
+    public void TestTooLargeIsNotKept() throws IOException {
+        PageCache cache = new PageCache(500);
+        assertEquals("/a", get(cache, "/a", 1));
+        assertEquals("/a", get(cache, "/a", 1));
+        assertEquals(2, renders.get());
+    }
+    
+    @Test
+    public void TestFailedRenderIsNotKept() throws IOException {
+        PageCache cache = new PageCache(1 << 20);
+        try {
+            cache.get("/a", "tag", 1, () -> {
+                throw new IOException("Catalog went away");
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals("Catalog went away", e.getMessage());
+        }
+        assertEquals("/a", get(cache, "/a", 1));
+        assertEquals(1, renders.get());
+    }
+    
+    @Test
+    public void TestConcurrentRequestsShareARender() throws Exception {
+        PageCache cache = new PageCache(1 << 20);
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<ContentEncoding.Body> first = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                first.set(cache.get("/a", "tag1", 1, () -> {
+                    rendering.countDown();
+                    release.await();
+                    return render("/a");
+                }));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        assertTrue(rendering.await(10, TimeUnit.SECONDS));
+        AtomicReference<ContentEncoding.Body> second = new AtomicReference<>();
+        Thread waiting = new Thread(() -> {
+            try {
+                second.set(cache.get("/a", "tag1", 1, () -> render("/a")));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waiting.start();
+        release.countDown();
+        thread.join(10000);
+        waiting.join(10000);
+        assertNotNull(first.get());
+        assertSame(first.get(), second.get());
+        assertEquals(1, renders.get());
+    }
+}
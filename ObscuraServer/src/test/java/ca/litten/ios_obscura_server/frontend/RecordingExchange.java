@@ -0,0 +1,72 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import com.sun.net.httpserver.Headers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+
+// An exchange that never touches a socket, keeping whatever the handler sends so a test can look at it
+class RecordingExchange implements ServerExchange {
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    int code = 0;
+    long length = 0;
+    boolean closed = false;
+    
+    RecordingExchange header(String name, String value) {
+        requestHeaders.add(name, value);
+        return this;
+    }
+    
+    byte[] getBody() {
+        return body.toByteArray();
+    }
+    
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+    
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+    
+    @Override
+    public URI getRequestURI() {
+        return URI.create("/");
+    }
+    
+    @Override
+    public String getRequestMethod() {
+        return "GET";
+    }
+    
+    @Override
+    public void sendResponseHeaders(int code, long length) {
+        this.code = code;
+        this.length = length;
+    }
+    
+    @Override
+    public OutputStream getResponseBody() {
+        return body;
+    }
+    
+    @Override
+    public void sendResponse(int code, ByteBuffer body) {
+        sendResponseHeaders(code, body.remaining());
+        ByteBuffer copy = body.duplicate();
+        byte[] bytes = new byte[copy.remaining()];
+        copy.get(bytes);
+        this.body.write(bytes, 0, bytes.length);
+    }
+    
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,146 @@
+package ca.litten.ios_obscura_server.frontend;
+
+import org.junit.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RequestExecutorTest {
+    
+    @Test
+    public void TestModes() {
+        assertNull(RequestExecutor.create("dispatcher", 4, 4, 1000));
+        assertNotNull(RequestExecutor.create("pool", 4, 4, 1000));
+        // Falls back to a pool before Java 21
+        assertNotNull(RequestExecutor.create("virtual", 4, 4, 1000));
+    }
+    
+    @Test
+    public void TestShedsWhenFull() throws InterruptedException {
+        RequestExecutor executor = RequestExecutor.create("pool", 1, 0, 10000);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean firstOverloaded = new AtomicBoolean(true);
+        executor.execute(() -> {
+            firstOverloaded.set(executor.overloaded());
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        assertFalse(firstOverloaded.get());
+        // No slot left, so it's told to answer with a 503, and not on the thread that handed it over
+        AtomicReference<Thread> ranOn = new AtomicReference<>();
+        AtomicBoolean shedOverloaded = new AtomicBoolean(false);
+        CountDownLatch shed = new CountDownLatch(1);
+        executor.execute(() -> {
+            ranOn.set(Thread.currentThread());
+            shedOverloaded.set(executor.overloaded());
+            shed.countDown();
+        });
+        assertTrue(shed.await(10, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), ranOn.get());
+        assertEquals("Request rejecter", ranOn.get().getName());
+        assertTrue(shedOverloaded.get());
+        assertFalse(executor.overloaded());
+        assertEquals("10", executor.getRetryAfter());
+        release.countDown();
+    }
+    
+    @Test
+    public void TestQueueDeadline() throws InterruptedException {
+        RequestExecutor executor = RequestExecutor.create("pool", 1, 1, 50);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        AtomicBoolean queuedOverloaded = new AtomicBoolean(false);
+        executor.execute(() -> {
+            queuedOverloaded.set(executor.overloaded());
+            done.countDown();
+        });
+        // Held in the queue past the deadline
+        Thread.sleep(200);
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(queuedOverloaded.get());
+        assertEquals("1", executor.getRetryAfter());
+        // With the queue empty again, a new request is handled normally
+        CountDownLatch again = new CountDownLatch(1);
+        AtomicBoolean againOverloaded = new AtomicBoolean(true);
+        executor.execute(() -> {
+            againOverloaded.set(executor.overloaded());
+            again.countDown();
+        });
+        assertTrue(again.await(10, TimeUnit.SECONDS));
+        assertFalse(againOverloaded.get());
+    }
+    
+    private static String statusLine(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        StringBuilder line = new StringBuilder();
+        int read;
+        while ((read = in.read()) != -1 && read != '\n')
+            if (read != '\r') line.append((char) read);
+        return line.toString();
+    }
+    
+    @Test
+    public void TestSlowClientsDontStallTheDispatcher() throws IOException, InterruptedException {
+        HttpServerEngine engine = new HttpServerEngine(0, RequestExecutor.create("pool", 1, 0, 10000));
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        engine.createContext("/slow", exchange -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponse(200, ByteBuffer.wrap("done".getBytes(StandardCharsets.UTF_8)));
+            exchange.close();
+        });
+        engine.createContext("/echo", exchange -> {
+            exchange.sendResponse(200, ByteBuffer.wrap("echo".getBytes(StandardCharsets.UTF_8)));
+            exchange.close();
+        });
+        engine.start();
+        try (Socket slow = new Socket("localhost", engine.getPort());
+             Socket idle = new Socket("localhost", engine.getPort());
+             Socket partial = new Socket("localhost", engine.getPort());
+             Socket shed = new Socket("localhost", engine.getPort())) {
+            shed.setSoTimeout(10000);
+            slow.setSoTimeout(10000);
+            slow.getOutputStream().write("GET /slow HTTP/1.1\r\nHost: test\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            // With the pool full, one client says nothing at all and one stops partway through its headers.
+            // HttpServer hands the second over as soon as it has bytes, and reading the rest of it would block whoever runs it.
+            partial.getOutputStream().write("GET /echo HTTP/1.1\r\nHost: te".getBytes(StandardCharsets.ISO_8859_1));
+            Thread.sleep(200);
+            shed.getOutputStream().write("GET /echo HTTP/1.1\r\nHost: test\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(statusLine(shed).startsWith("HTTP/1.1 503"));
+            release.countDown();
+            assertTrue(statusLine(slow).startsWith("HTTP/1.1 200"));
+        } finally {
+            release.countDown();
+            engine.stop();
+        }
+    }
+}
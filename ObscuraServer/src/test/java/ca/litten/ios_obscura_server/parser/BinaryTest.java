@@ -1,5 +1,6 @@
 package ca.litten.ios_obscura_server.parser;
 
+import org.json.JSONObject;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -121,4 +122,24 @@ public class BinaryTest {
             entry = zipExtractor.getNextEntry();
         }
     }
+    
+    @Test
+    public void TestBinaryMasks() {
+        JSONObject json = new JSONObject();
+        json.put("ARMv7", true);
+        json.put("ARM64v8", false);
+        Binary binary = Binary.fromJSON(json);
+        assertTrue(binary.supportsArchitecture(CPUarch.ARMv7));
+        assertTrue(binary.architectureEncrypted(CPUarch.ARMv7));
+        assertFalse(binary.architectureEncrypted(CPUarch.ARM64v8));
+        assertFalse(binary.supportsArchitecture(CPUarch.ARMv6));
+        assertTrue(binary.hasUnencryptedSlice());
+        assertTrue(binary.has64BitSlice());
+        assertEquals(json.toMap(), binary.toJSON().toMap());
+        assertSame(binary, Binary.fromJSON(new JSONObject(json.toString())));
+        Binary encrypted = Binary.fromJSON(new JSONObject().put("ARMv7", true));
+        assertFalse(encrypted.hasUnencryptedSlice());
+        assertFalse(encrypted.has64BitSlice());
+        assertNull(Binary.fromJSON(null));
+    }
 }